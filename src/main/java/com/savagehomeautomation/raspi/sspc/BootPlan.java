@@ -0,0 +1,219 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  BootPlan.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a persisted snapshot of the planned switch transitions of 
+ * every channel, used to assert the correct output states at boot before 
+ * the location is known and any sunrise/sunset or rule calculation is done.
+ * 
+ * The plan is written to a temporary file, synced and renamed into place so a 
+ * power loss while writing never leaves a truncated plan behind.  A plan file 
+ * that is corrupt anyway is rejected as a whole, so the caller falls back to 
+ * computing the plan.
+ * 
+ * @author Robert Savage
+ */
+public class BootPlan
+{
+    private static final int MAGIC = 0x53535043;   // "SSPC"
+    private static final int VERSION = 1;
+    private static final int MAX_CHANNELS = OutputBackend.MAX_PIN;
+    private static final int TRANSITION_SIZE = 8;
+    
+    private final long created;
+    private final long validUntil;
+    private final String[] channelNames;
+    private final int[] channelPins;
+    private final long[][] transitions;
+    
+    private BootPlan(long created, long validUntil, String[] channelNames, int[] channelPins, long[][] transitions)
+    {
+        this.created = created;
+        this.validUntil = validUntil;
+        this.channelNames = channelNames;
+        this.channelPins = channelPins;
+        this.transitions = transitions;
+    }
+    
+    /**
+     * Write the current plan of a schedule.
+     * 
+     * @param file plan file
+     * @param schedule compiled channel schedule
+     * @param index switch event index of the schedule
+     * @param time time at which the plan is taken
+     * @throws IOException if the plan cannot be written
+     */
+    public static void write(File file, CompiledSchedule schedule, SwitchIntervalIndex index, long time) throws IOException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(time);
+            out.writeLong(index.getHorizon());
+            out.writeInt(schedule.getChannelCount());
+            for(int channel = 0; channel < schedule.getChannelCount(); channel++)
+            {
+                long[] times = index.getTransitions(channel);
+                out.writeUTF(schedule.getChannelName(channel));
+                out.writeInt(schedule.getChannelPin(channel));
+                out.writeInt(times.length);
+                for(long t : times)
+                    out.writeLong(t);
+            }
+            
+            // the data must be on disk before the rename makes it the plan
+            out.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+        if(!temp.renameTo(file))
+        {
+            // rename cannot replace an existing file on some platforms
+            file.delete();
+            if(!temp.renameTo(file))
+                throw new IOException("unable to replace " + file);
+        }
+    }
+    
+    /**
+     * Read a plan.
+     * 
+     * @param file plan file
+     * @return the plan, or null if the file does not exist or is not a valid plan
+     */
+    public static BootPlan read(File file)
+    {
+        if(!file.isFile())
+            return null;
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return null;
+                long created = in.readLong();
+                long validUntil = in.readLong();
+                int channels = in.readInt();
+                if(channels < 0 || channels > MAX_CHANNELS)
+                    return null;
+                String[] names = new String[channels];
+                int[] pins = new int[channels];
+                long[][] transitions = new long[channels][];
+                for(int channel = 0; channel < channels; channel++)
+                {
+                    names[channel] = in.readUTF();
+                    pins[channel] = in.readInt();
+                    int count = in.readInt();
+                    if(pins[channel] < 1 || pins[channel] > OutputBackend.MAX_PIN 
+                            || count < 0 || (long)count * TRANSITION_SIZE > file.length())
+                        return null;
+                    transitions[channel] = new long[count];
+                    for(int index = 0; index < count; index++)
+                    {
+                        transitions[channel][index] = in.readLong();
+                        if(index > 0 && transitions[channel][index] <= transitions[channel][index - 1])
+                            return null;
+                    }
+                }
+                return new BootPlan(created, validUntil, names, pins, transitions);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch(IOException ex)
+        {
+            return null;
+        }
+    }
+    
+    /**
+     * @param time point in time
+     * @return true if the plan covers the given time
+     */
+    public boolean isValidAt(long time)
+    {
+        return time >= created && time < validUntil;
+    }
+    
+    /**
+     * @return number of channels in the plan
+     */
+    public int getChannelCount()
+    {
+        return channelPins.length;
+    }
+    
+    /**
+     * @param channel channel index
+     * @return channel name
+     */
+    public String getChannelName(int channel)
+    {
+        return channelNames[channel];
+    }
+    
+    /**
+     * @param channel channel index
+     * @return channel GPIO pin
+     */
+    public int getChannelPin(int channel)
+    {
+        return channelPins[channel];
+    }
+    
+    /**
+     * Get the planned state of a channel.
+     * 
+     * @param channel channel index
+     * @param time instant in ms since the epoch (within the plan)
+     * @return true if the channel should be ON at the given time
+     */
+    public boolean stateAt(int channel, long time)
+    {
+        int index = Arrays.binarySearch(transitions[channel], time);
+        int count = (index < 0) ? -index - 1 : index + 1;
+        return (count & 1) == 1;
+    }
+}
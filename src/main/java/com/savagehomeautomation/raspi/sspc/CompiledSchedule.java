@@ -0,0 +1,357 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  CompiledSchedule.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.savagehomeautomation.utility.EpochDays;
+import com.savagehomeautomation.utility.SolarEvent;
+import com.savagehomeautomation.utility.PreparedSite;
+
+/**
+ * This class is the compiled form of a set of {@link ScheduleRules} for a 
+ * specific location.
+ * 
+ * Compilation resolves every rule into primitive tables and builds, per channel, 
+ * a lookup table from (month, day of week) to the rule in effect.  From those 
+ * tables a plan of on/off intervals is computed per day and channel (on first 
+ * use) and cached; the scheduler only ever evaluates these precomputed plans 
+ * (through a {@link SwitchIntervalIndex}), so no rule is parsed or interpreted 
+ * on the event path.  In vacation mode the plans are randomized by a 
+ * {@link VacationPlanner} as they are computed.
+ * 
+ * @author Robert Savage
+ */
+public class CompiledSchedule
+{
+    private static final long[] NO_INTERVALS = new long[0];
+    private static final int CACHED_DAYS = 64;
+    private static final int MAX_SEARCH_DAYS = 366;
+    private static final long NOON = 12 * 60 * 60 * 1000L;
+    
+    // location
+    private final PreparedSite site;
+    private final TimeZone tz;
+    
+    // randomized vacation mode plans (null if disabled)
+    private final VacationPlanner vacation;
+    
+    // channels
+    private final String[] channelNames;
+    private final int[] channelPins;
+    
+    // rules resolved into primitive tables
+    private final boolean[] ruleOff;
+    private final int[] ruleStartAnchor;
+    private final long[] ruleStartOffset;
+    private final int[] ruleEndAnchor;
+    private final long[] ruleEndOffset;
+    
+    // rule in effect per channel, indexed by (month * 8 + day of week); -1 for none
+    private final int[][] ruleLookup;
+    
+    // precomputed day plans: per day, per channel (null until computed), sorted [on, off, on, off, ...] instants
+    private final Map<Long, long[][]> plans = new LinkedHashMap<Long, long[][]>(CACHED_DAYS, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, long[][]> eldest)
+        {
+            return size() > CACHED_DAYS;
+        }
+    };
+    
+    CompiledSchedule(ScheduleRules rules, PreparedSite site, VacationPlanner vacation)
+    {
+        this.site = site;
+        this.tz = site.getTimeZone();
+        this.vacation = vacation;
+        
+        List<String> names = rules.getChannelNames();
+        channelNames = names.toArray(new String[names.size()]);
+        channelPins = new int[channelNames.length];
+        for(int channel = 0; channel < channelPins.length; channel++)
+            channelPins[channel] = rules.getChannelPins().get(channel);
+        
+        List<ScheduleRules.Rule> list = rules.getRules();
+        int count = list.size();
+        ruleOff = new boolean[count];
+        ruleStartAnchor = new int[count];
+        ruleStartOffset = new long[count];
+        ruleEndAnchor = new int[count];
+        ruleEndOffset = new long[count];
+        ruleLookup = new int[channelNames.length][13 * 8];
+        for(int[] lookup : ruleLookup)
+            Arrays.fill(lookup, -1);
+        
+        for(int index = 0; index < count; index++)
+        {
+            ScheduleRules.Rule rule = list.get(index);
+            ruleOff[index] = rule.off;
+            ruleStartAnchor[index] = rule.startAnchor;
+            ruleStartOffset[index] = rule.startOffset;
+            ruleEndAnchor[index] = rule.endAnchor;
+            ruleEndOffset[index] = rule.endOffset;
+            
+            // later rules override earlier ones
+            int[] lookup = ruleLookup[indexOf(rule.channel)];
+            for(int month = 1; month <= 12; month++)
+            {
+                if((rule.monthMask & (1 << month)) == 0)
+                    continue;
+                for(int day = 1; day <= 7; day++)
+                {
+                    if((rule.dayMask & (1 << day)) != 0)
+                        lookup[month * 8 + day] = index;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return number of channels
+     */
+    public int getChannelCount()
+    {
+        return channelNames.length;
+    }
+    
+    /**
+     * @param channel channel index
+     * @return channel name
+     */
+    public String getChannelName(int channel)
+    {
+        return channelNames[channel];
+    }
+    
+    /**
+     * @param channel channel index
+     * @return channel GPIO pin
+     */
+    public int getChannelPin(int channel)
+    {
+        return channelPins[channel];
+    }
+    
+    /**
+     * @param name channel name
+     * @return channel index or -1 if unknown
+     */
+    public int indexOf(String name)
+    {
+        for(int channel = 0; channel < channelNames.length; channel++)
+        {
+            if(channelNames[channel].equals(name))
+                return channel;
+        }
+        return -1;
+    }
+    
+    /**
+     * @return vacation mode planner or null if vacation mode is disabled
+     */
+    public VacationPlanner getVacationPlanner()
+    {
+        return vacation;
+    }
+    
+    /**
+     * @return time zone of the schedule
+     */
+    public TimeZone getTimeZone()
+    {
+        return tz;
+    }
+    
+    /**
+     * Get the planned on/off intervals of a channel for the rule applied on a local date.  
+     * Intervals may extend past midnight into the following date.
+     * 
+     * @param channel channel index
+     * @param epochDay local date as days since 1970-01-01
+     * @return sorted array of [on, off) instant pairs
+     */
+    public synchronized long[] getIntervals(int channel, long epochDay)
+    {
+        long[][] plan = getPlan(epochDay);
+        if(plan[channel] == null)
+            plan[channel] = computeIntervals(channel, epochDay);
+        return plan[channel];
+    }
+    
+    /**
+     * @param channel channel index
+     * @return true if any rule of the channel is anchored to sunrise or sunset
+     */
+    public boolean usesSolarEvents(int channel)
+    {
+        for(int rule : ruleLookup[channel])
+        {
+            if(rule >= 0 && !ruleOff[rule] 
+                    && (ruleStartAnchor[rule] != ScheduleRules.ANCHOR_CLOCK || ruleEndAnchor[rule] != ScheduleRules.ANCHOR_CLOCK))
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Precompute the day plans for a range of dates.
+     * 
+     * @param firstDay first local date as days since 1970-01-01
+     * @param days number of days to precompute
+     */
+    public void precompute(long firstDay, int days)
+    {
+        for(long day = firstDay; day < firstDay + days; day++)
+        {
+            for(int channel = 0; channel < channelNames.length; channel++)
+                getIntervals(channel, day);
+        }
+    }
+
+    private long[][] getPlan(long epochDay)
+    {
+        Long key = epochDay;
+        long[][] plan = plans.get(key);
+        if(plan == null)
+        {
+            plan = new long[channelNames.length][];
+            plans.put(key, plan);
+        }
+        return plan;
+    }
+    
+    private long[] computeIntervals(int channel, long epochDay)
+    {
+        int rule = ruleLookup[channel][EpochDays.monthOf(epochDay) * 8 + EpochDays.dayOfWeek(epochDay)];
+        if(rule < 0 || ruleOff[rule])
+            return NO_INTERVALS;
+        long start = resolveStart(ruleStartAnchor[rule], ruleStartOffset[rule], epochDay);
+        long end = resolveEnd(ruleStartAnchor[rule], ruleEndAnchor[rule], ruleEndOffset[rule], epochDay, start);
+        if(end <= start)
+            return NO_INTERVALS;
+        long[] intervals = new long[] { start, end };
+        return (vacation == null) ? intervals : vacation.plan(channelNames[channel], epochDay, intervals, tz);
+    }
+    
+    /**
+     * Resolve the start time expression of a rule on a local date.  On days without 
+     * a sunrise/sunset the sun anchors resolve to the start of the day if the sun is 
+     * already in the anchored state (e.g. 'sunset' during polar night) or to the end 
+     * of the day otherwise (e.g. 'sunset' during midnight sun).  A sunset after 
+     * midnight is reported on the date it falls on, before that date's sunrise; the 
+     * evening's sunset is then the one reported on the following date.
+     */
+    private long resolveStart(int anchor, long offset, long epochDay)
+    {
+        if(anchor == ScheduleRules.ANCHOR_CLOCK)
+            return EpochDays.toInstant(epochDay, offset, tz);
+        
+        SolarEvent event = getEvent(anchor, epochDay);
+        if(anchor == ScheduleRules.ANCHOR_SUNSET && event.isTransition())
+        {
+            SolarEvent sunrise = site.getSunriseEvent(epochDay);
+            if(sunrise.isTransition() && event.getTime() < sunrise.getTime())
+            {
+                event = getEvent(anchor, epochDay + 1);
+                if(!event.isTransition())
+                    return EpochDays.startOfDay(epochDay + 1, tz);
+            }
+        }
+        if(event.isTransition())
+            return event.getTime() + offset;
+        return EpochDays.startOfDay(isReached(anchor, event) ? epochDay : epochDay + 1, tz);
+    }
+    
+    /**
+     * Resolve the end time expression of a rule started on a local date to its first 
+     * occurrence after the start.  If the sun is already in the anchored state the 
+     * interval ends at the start of that day; if the sun does not reach it for a 
+     * while (e.g. 'sunrise' during polar night) the end is the next time it does.
+     * 
+     * A clock end only rolls over to the following date for overnight rules: after a 
+     * clock start (e.g. '22:00 until 06:00') or, after a sunset start, when the end is 
+     * a morning time (e.g. 'sunset until 01:00').  Otherwise a start that has passed 
+     * the end (e.g. 'sunset+15m until 23:30' under the midnight sun) resolves to the 
+     * start, an empty interval, so the rule is skipped on that date.
+     */
+    private long resolveEnd(int startAnchor, int anchor, long offset, long epochDay, long start)
+    {
+        if(anchor == ScheduleRules.ANCHOR_CLOCK)
+        {
+            boolean overnight = (startAnchor == ScheduleRules.ANCHOR_CLOCK) 
+                    || (startAnchor == ScheduleRules.ANCHOR_SUNSET && offset < NOON);
+            long end = EpochDays.toInstant(epochDay, offset, tz);
+            if(end > start)
+                return end;
+            return overnight ? EpochDays.toInstant(epochDay + 1, offset, tz) : start;
+        }
+        
+        for(long day = epochDay; day <= epochDay + 1; day++)
+        {
+            SolarEvent event = getEvent(anchor, day);
+            if(event.isTransition())
+            {
+                if(event.getTime() + offset > start)
+                    return event.getTime() + offset;
+            }
+            else if(isReached(anchor, event))
+            {
+                return Math.max(start, EpochDays.startOfDay(day, tz));
+            }
+            else
+            {
+                Date from = new Date(EpochDays.startOfDay(day, tz));
+                SolarEvent next = (anchor == ScheduleRules.ANCHOR_SUNRISE)
+                        ? site.findNextSunrise(from, MAX_SEARCH_DAYS)
+                        : site.findNextSunset(from, MAX_SEARCH_DAYS);
+                return (next == null) ? start : Math.max(start, next.getTime() + offset);
+            }
+        }
+        return start;
+    }
+    
+    private SolarEvent getEvent(int anchor, long epochDay)
+    {
+        return (anchor == ScheduleRules.ANCHOR_SUNRISE)
+                ? site.getSunriseEvent(epochDay)
+                : site.getSunsetEvent(epochDay);
+    }
+    
+    /**
+     * @return true if on a day without the anchored event, the sun is in the anchored state all day
+     */
+    private static boolean isReached(int anchor, SolarEvent event)
+    {
+        return (anchor == ScheduleRules.ANCHOR_SUNRISE) 
+                ? event.getType() == SolarEvent.Type.ALWAYS_UP
+                : event.getType() == SolarEvent.Type.ALWAYS_DOWN;
+    }
+}
@@ -0,0 +1,159 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  ConfigWatcher.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class watches a configuration file for changes using the NIO 
+ * {@link WatchService} and notifies a listener once the file has settled.
+ * 
+ * Editors typically save a file with several writes (or by replacing it), 
+ * which produces a burst of events; the listener is only notified after no 
+ * further event was seen for {@link #SETTLE_TIME} ms.
+ * 
+ * @author Robert Savage
+ */
+public class ConfigWatcher implements Runnable
+{
+    /** quiet time in ms after the last change before the listener is notified */
+    public static final long SETTLE_TIME = 500;
+    
+    /**
+     * This interface is notified when the watched file has changed.
+     */
+    public interface Listener
+    {
+        /**
+         * @param file the changed file
+         */
+        void configChanged(File file);
+    }
+    
+    private final File file;
+    private final Listener listener;
+    private WatchService service;
+    
+    /**
+     * @param file configuration file to watch
+     * @param listener listener to notify of changes
+     */
+    public ConfigWatcher(File file, Listener listener)
+    {
+        this.file = file.getAbsoluteFile();
+        this.listener = listener;
+    }
+    
+    /**
+     * Start watching the file on a (daemon) background thread.
+     * 
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public void start() throws IOException
+    {
+        service = FileSystems.getDefault().newWatchService();
+        file.getParentFile().toPath().register(service, 
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this, "SSPC-ConfigWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stop watching the file.
+     */
+    public void stop()
+    {
+        try
+        {
+            service.close();
+        }
+        catch(IOException ex)
+        {
+            // nothing left to release
+        }
+    }
+    
+    @Override
+    public void run()
+    {
+        try
+        {
+            for(;;)
+            {
+                if(!isChange(service.take()))
+                    continue;
+                
+                // wait for the burst of events to settle
+                WatchKey key;
+                while((key = service.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null)
+                    isChange(key);
+                
+                try
+                {
+                    listener.configChanged(file);
+                }
+                catch(RuntimeException ex)
+                {
+                    System.err.println("***************************************************");
+                    System.err.println("[ERROR] Configuration reload failed: " + ex);
+                    System.err.println("***************************************************");
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            // stopped
+        }
+        catch(ClosedWatchServiceException ex)
+        {
+            // stopped
+        }
+    }
+    
+    /**
+     * @return true if the key has an event for the watched file; the key is reset
+     */
+    private boolean isChange(WatchKey key)
+    {
+        boolean change = false;
+        for(WatchEvent<?> event : key.pollEvents())
+        {
+            Object context = event.context();
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW 
+                    || (context instanceof Path && ((Path)context).getFileName().toString().equals(file.getName())))
+                change = true;
+        }
+        key.reset();
+        return change;
+    }
+}
@@ -33,5 +33,9 @@ public enum EventType
 {
     SunriseToday,
     SunsetToday,
-    SunriseTomorrow
+    SunriseTomorrow,
+    SunriseLater,
+    SunsetLater,
+    PolarNight,
+    PolarDay
 }
@@ -0,0 +1,360 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  EventWaiter.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class runs tasks at absolute wall-clock times, like 
+ * {@link java.util.Timer}, but measures its sleeps with the monotonic clock 
+ * ({@link System#nanoTime()}) and tolerates steps of the wall clock.
+ * 
+ * A Raspberry Pi has no real-time clock; it boots with a stale time and the 
+ * wall clock is stepped (possibly by hours) once NTP synchronizes.  A timer 
+ * sleeping until an absolute date would then fire far too early or late.  
+ * This waiter sleeps in long intervals of at most {@link #MAX_SLEEP} and 
+ * re-aligns to the wall clock on every wakeup; within {@link #ALIGN_WINDOW} 
+ * of the next task it sleeps exactly the remaining time.  On every wakeup the 
+ * elapsed wall-clock time is compared with the elapsed monotonic time; if 
+ * they differ by more than {@link #STEP_TOLERANCE} the registered 
+ * {@link ClockStepListener} is notified before any due task is run, so the 
+ * owner can re-plan from the new time.  Both clocks are read from a 
+ * {@link TimeSource}, so the waiter can also run on a simulated clock.
+ * 
+ * @author Robert Savage
+ */
+public class EventWaiter
+{
+    /** longest uninterrupted sleep; bounds the latency of step detection */
+    public static final long MAX_SLEEP = TimeUnit.MINUTES.toMillis(10);
+    
+    /** time before a task within which the waiter sleeps the exact remaining time */
+    public static final long ALIGN_WINDOW = TimeUnit.MINUTES.toMillis(1);
+    
+    /** wall-clock deviation from the monotonic clock treated as a clock step (in real time) */
+    public static final long STEP_TOLERANCE = TimeUnit.SECONDS.toMillis(2);
+    
+    /**
+     * This interface is notified when the wall clock has been stepped.
+     */
+    public interface ClockStepListener
+    {
+        /**
+         * @param offset amount in ms the wall clock was stepped by (negative if stepped back)
+         */
+        void clockStepped(long offset);
+    }
+    
+    /**
+     * This class is a task that can be scheduled once with the waiter.
+     */
+    public static abstract class Task implements Runnable
+    {
+        private long time;
+        private long sequence;
+        private volatile boolean cancelled;
+        
+        /**
+         * Cancel the task; it will not run if it has not yet started.
+         */
+        public void cancel()
+        {
+            cancelled = true;
+        }
+        
+        /**
+         * @return true if the task was cancelled
+         */
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Task> queue = new PriorityQueue<Task>(16, new Comparator<Task>()
+    {
+        @Override
+        public int compare(Task a, Task b)
+        {
+            if(a.time != b.time)
+                return (a.time < b.time) ? -1 : 1;
+            return (a.sequence < b.sequence) ? -1 : (a.sequence > b.sequence) ? 1 : 0;
+        }
+    });
+    private final Thread thread;
+    private final TimeSource clock;
+    private ClockStepListener stepListener;
+    private long sequence;
+    private long wakeups;
+    private long steps;
+    private boolean stopped;
+    
+    /**
+     * Create a waiter on the system clocks and start its thread.
+     * 
+     * @param name name of the waiter thread
+     */
+    public EventWaiter(String name)
+    {
+        this(name, TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Create a waiter and start its thread.
+     * 
+     * @param name name of the waiter thread
+     * @param clock source of wall-clock and monotonic time
+     */
+    public EventWaiter(String name, TimeSource clock)
+    {
+        this.clock = clock;
+        thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loop();
+            }
+        }, name);
+        thread.start();
+    }
+    
+    /**
+     * @param listener listener to notify of wall-clock steps (may be null)
+     */
+    public void setClockStepListener(ClockStepListener listener)
+    {
+        lock.lock();
+        try
+        {
+            stepListener = listener;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Schedule a task to run at an absolute wall-clock time.
+     * 
+     * @param task task to run; a task may only be scheduled once
+     * @param time instant in ms since the epoch
+     */
+    public void schedule(Task task, long time)
+    {
+        lock.lock();
+        try
+        {
+            if(stopped)
+                throw new IllegalStateException("Waiter has been stopped.");
+            if(task.sequence != 0)
+                throw new IllegalStateException("Task has already been scheduled.");
+            task.time = time;
+            task.sequence = ++sequence;
+            queue.add(task);
+            
+            // wake the waiter thread if the new task is the next one due
+            if(queue.peek() == task)
+                changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Schedule a batch of tasks at once; the waiter thread is woken at most 
+     * once for the whole batch.
+     * 
+     * @param tasks tasks to run; null entries are skipped
+     * @param times instants in ms since the epoch, per task
+     */
+    public void scheduleAll(Task[] tasks, long[] times)
+    {
+        lock.lock();
+        try
+        {
+            if(stopped)
+                throw new IllegalStateException("Waiter has been stopped.");
+            for(Task task : tasks)
+            {
+                if(task != null && task.sequence != 0)
+                    throw new IllegalStateException("Task has already been scheduled.");
+            }
+            
+            Task head = queue.peek();
+            for(int index = 0; index < tasks.length; index++)
+            {
+                Task task = tasks[index];
+                if(task == null)
+                    continue;
+                task.time = times[index];
+                task.sequence = ++sequence;
+                queue.add(task);
+            }
+            
+            // wake the waiter thread if the next task due has changed
+            if(queue.peek() != head)
+                changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return number of times the waiter thread has woken up
+     */
+    public long getWakeups()
+    {
+        lock.lock();
+        try
+        {
+            return wakeups;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return number of wall-clock steps detected
+     */
+    public long getClockSteps()
+    {
+        lock.lock();
+        try
+        {
+            return steps;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Stop the waiter; pending tasks are discarded.
+     */
+    public void stop()
+    {
+        lock.lock();
+        try
+        {
+            stopped = true;
+            queue.clear();
+            changed.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+    
+    private void loop()
+    {
+        // reference pair of wall-clock and monotonic readings
+        long wallAnchor = clock.currentTimeMillis();
+        long monoAnchor = clock.nanoTime();
+        
+        while(true)
+        {
+            Task due = null;
+            ClockStepListener listener = null;
+            long offset = 0;
+            
+            lock.lock();
+            try
+            {
+                if(stopped)
+                    return;
+                
+                // detect a step of the wall clock against the monotonic clock
+                long wall = clock.currentTimeMillis();
+                long mono = clock.nanoTime();
+                offset = (wall - wallAnchor) - TimeUnit.NANOSECONDS.toMillis(mono - monoAnchor);
+                wallAnchor = wall;
+                monoAnchor = mono;
+                if(Math.abs(offset) > STEP_TOLERANCE * clock.getSpeed())
+                {
+                    steps++;
+                    listener = stepListener;
+                }
+                else
+                {
+                    // discard cancelled tasks at the head of the queue
+                    while(queue.peek() != null && queue.peek().cancelled)
+                        queue.poll();
+                    
+                    Task next = queue.peek();
+                    long remaining = (next == null) ? MAX_SLEEP : next.time - wall;
+                    if(remaining <= 0)
+                    {
+                        due = queue.poll();
+                    }
+                    else
+                    {
+                        // sleep long while far away; exactly once the task is near
+                        long sleep = (remaining > ALIGN_WINDOW) ? Math.min(remaining - ALIGN_WINDOW, MAX_SLEEP) : remaining;
+                        changed.awaitNanos(clock.toWaitNanos(sleep));
+                        wakeups++;
+                        continue;
+                    }
+                }
+            }
+            catch(InterruptedException ex)
+            {
+                return;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            
+            // run callbacks outside the lock so they may schedule new tasks
+            try
+            {
+                if(listener != null)
+                    listener.clockStepped(offset);
+                else if(due != null && !due.cancelled)
+                    due.run();
+            }
+            catch(RuntimeException ex)
+            {
+                System.err.println("***************************************************");
+                System.err.println("[ERROR] Scheduled task failed: " + ex);
+                System.err.println("***************************************************");
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  GpioOutputBackend.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import com.pi4j.io.gpio.trigger.GpioToggleStateTrigger;
+
+/**
+ * This class drives the power controllers and reads the override switch 
+ * on the Raspberry Pi GPIO pins using the Pi4J API.
+ * 
+ * The GPIO controller is only created when the first pin is provisioned.
+ * 
+ * @author Robert Savage
+ */
+public class GpioOutputBackend implements OutputBackend
+{
+    // output pins addressable by schedule channels (GPIO #0 is the override switch)
+    private static final Pin[] OUTPUT_PINS = { null, 
+        RaspiPin.GPIO_01, RaspiPin.GPIO_02, RaspiPin.GPIO_03, RaspiPin.GPIO_04,
+        RaspiPin.GPIO_05, RaspiPin.GPIO_06, RaspiPin.GPIO_07, RaspiPin.GPIO_08,
+        RaspiPin.GPIO_09, RaspiPin.GPIO_10, RaspiPin.GPIO_11, RaspiPin.GPIO_12,
+        RaspiPin.GPIO_13, RaspiPin.GPIO_14, RaspiPin.GPIO_15, RaspiPin.GPIO_16 };
+    
+    private GpioController gpio;
+    
+    @Override
+    public Output provisionOutput(int pin, String name)
+    {
+        GpioPinDigitalOutput output = getController().provisionDigitalOutputPin(OUTPUT_PINS[pin], name);
+        
+        // force power controller to OFF if the program is shutdown
+        output.setShutdownOptions(true, PinState.LOW);
+        return new GpioOutput(output);
+    }
+
+    /**
+     * Pi4J writes one pin at a time; the pins are written back to back with 
+     * the backend locked, so batches never interleave.
+     */
+    @Override
+    public synchronized void setStates(Output[] outputs, boolean[] states)
+    {
+        for(int index = 0; index < outputs.length; index++)
+            outputs[index].setState(states[index]);
+    }
+
+    @Override
+    public void provisionOverrideSwitch(Output output, final OverrideListener listener)
+    {
+        //   GPIO PIN #0 == OVERRIDE SWITCH
+        GpioPinDigitalInput overrideSwitch = getController().provisionDigitalInputPin(RaspiPin.GPIO_00, "OverrideSwitch", PinPullResistance.PULL_DOWN);
+
+        // create a gpio toggle trigger on the override switch input pin; 
+        // when the input is detected, toggle the power controller state
+        overrideSwitch.addTrigger(new GpioToggleStateTrigger(PinState.HIGH, ((GpioOutput)output).pin));
+        
+        // create a listener for the override switch
+        overrideSwitch.addListener(new GpioPinListenerDigital()
+        {
+            @Override
+            public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent event)
+            {
+                if(event.getState().isHigh())
+                    listener.overridePressed();
+            }
+        });
+    }
+    
+    private GpioController getController()
+    {
+        if(gpio == null)
+            gpio = GpioFactory.getInstance();
+        return gpio;
+    }
+    
+    /**
+     * This class is a provisioned GPIO output pin.
+     */
+    private static class GpioOutput implements Output
+    {
+        private final GpioPinDigitalOutput pin;
+        
+        public GpioOutput(GpioPinDigitalOutput pin)
+        {
+            this.pin = pin;
+        }
+
+        @Override
+        public void setState(boolean high)
+        {
+            pin.setState(high ? PinState.HIGH : PinState.LOW);
+        }
+
+        @Override
+        public boolean isHigh()
+        {
+            return pin.isHigh();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  OutputBackend.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * This interface abstracts the hardware the controller switches: the power 
+ * controller outputs of the schedule channels and the override switch.
+ * 
+ * The {@link GpioOutputBackend} drives the Raspberry Pi GPIO pins through 
+ * Pi4J; the tests use an in-memory backend so the controller can run (and 
+ * be load tested) without the hardware.
+ * 
+ * @author Robert Savage
+ */
+public interface OutputBackend
+{
+    /** highest output pin number (pin #0 is the override switch) */
+    public static final int MAX_PIN = 16;
+    
+    /**
+     * This interface is a provisioned output pin.
+     */
+    public interface Output
+    {
+        /**
+         * @param high true to turn the power controller ON
+         */
+        void setState(boolean high);
+        
+        /**
+         * @return true if the output pin currently reads as ON
+         */
+        boolean isHigh();
+    }
+    
+    /**
+     * This interface is notified when the override switch is pressed.
+     */
+    public interface OverrideListener
+    {
+        /**
+         * Invoked after the override switch has toggled its output.
+         */
+        void overridePressed();
+    }
+    
+    /**
+     * Provision an output pin; the pin is forced OFF when the program is shutdown.
+     * 
+     * @param pin output pin number (1 - {@link #MAX_PIN})
+     * @param name pin name
+     * @return provisioned output pin
+     */
+    Output provisionOutput(int pin, String name);
+    
+    /**
+     * Set the states of several outputs as one batch, without any other 
+     * output change in between.
+     * 
+     * @param outputs outputs to set
+     * @param states state per output (true for ON)
+     */
+    void setStates(Output[] outputs, boolean[] states);
+    
+    /**
+     * Provision the override switch; each press toggles the given output 
+     * and then notifies the listener.
+     * 
+     * @param output output toggled by the switch
+     * @param listener listener to notify of presses
+     */
+    void provisionOverrideSwitch(Output output, OverrideListener listener);
+}
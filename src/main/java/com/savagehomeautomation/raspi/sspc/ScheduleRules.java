@@ -0,0 +1,667 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  ScheduleRules.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.savagehomeautomation.utility.PreparedSite;
+import com.savagehomeautomation.utility.SunriseSunset;
+
+/**
+ * This class holds the parsed form of the schedule rule language used to 
+ * describe when each output channel should be powered.
+ * 
+ * <pre>
+ *   # optional location (latitude longitude) and sunrise/sunset zenith
+ *   location 40.058094 -105.195154
+ *   zenith   official
+ * 
+ *   # declare the output channels and their GPIO pin (1 - 16)
+ *   channel power gpio 1
+ *   channel porch gpio 2
+ * 
+ *   # channel  days       start          end
+ *   power      daily      sunset   until sunrise
+ *   porch      weekdays   sunset+15m until 23:30
+ *   porch      weekends   sunset   until sunrise
+ *   porch      jun-aug    off
+ * 
+ *   # named channel groups and scenes of channel (or group) states
+ *   group outside power porch
+ *   scene evening power=on porch=off
+ * </pre>
+ * 
+ * Days are a comma separated list of 'daily', 'weekdays', 'weekends', day names 
+ * ('mon' ... 'sun'), month names ('jan' ... 'dec') or ranges of either ('mon-fri', 
+ * 'nov-feb').  A rule applies on a date when both its day of week and its month 
+ * match; the last matching rule for a channel wins.  Times are either a wall clock 
+ * time ('23:30') or 'sunrise'/'sunset' with an optional offset ('sunset+15m', 
+ * 'sunrise-1h30m').  A clock end at or before the start time is taken from the 
+ * following date for overnight rules, i.e. after a clock start ('22:00 until 06:00') 
+ * or after a sunset start with a morning end ('sunset until 01:00'); otherwise the 
+ * rule is skipped on that date (e.g. 'sunset+15m until 23:30' under the midnight sun).
+ * 
+ * Groups and scenes are switched as one batch by the 'on &lt;group&gt;', 
+ * 'off &lt;group&gt;' and 'scene &lt;name&gt;' commands; 'all' is the implicit 
+ * group of every channel and every channel is also a group of its own.
+ * 
+ * The zenith is either 'official', 'civil', 'nautical', 'astronomical' or a 
+ * number of degrees; it defaults to 'official'.
+ * 
+ * Rules are only interpreted once; see {@link CompiledSchedule} for the form 
+ * evaluated by the scheduler.
+ * 
+ * @author Robert Savage
+ */
+public class ScheduleRules
+{
+    // time anchors
+    static final int ANCHOR_CLOCK = 0;
+    static final int ANCHOR_SUNRISE = 1;
+    static final int ANCHOR_SUNSET = 2;
+    
+    // day of week (bits 1 - 7, Calendar numbering) and month (bits 1 - 12) masks
+    static final int ALL_DAYS = 0xFE;
+    static final int ALL_MONTHS = 0x1FFE;
+    
+    private static final String[] DAY_NAMES = { "sun", "mon", "tue", "wed", "thu", "fri", "sat" };
+    private static final String[] KEYWORDS = { "channel", "location", "zenith", "group", "scene", "all" };
+    private static final String[] MONTH_NAMES = { "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec" };
+    private static final long MILLIS_PER_MINUTE = 60000L;
+    
+    private final List<String> channelNames = new ArrayList<String>();
+    private final List<Integer> channelPins = new ArrayList<Integer>();
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+    private final Map<String, List<String>> sceneTargets = new LinkedHashMap<String, List<String>>();
+    private final Map<String, Map<String, Boolean>> scenes = new LinkedHashMap<String, Map<String, Boolean>>();
+    private Double latitude;
+    private Double longitude;
+    private double zenith = SunriseSunset.OFFICIAL_ZENITH;
+    
+    /**
+     * A single parsed rule line.
+     */
+    static class Rule
+    {
+        final String channel;
+        final int dayMask;
+        final int monthMask;
+        final boolean off;
+        final int startAnchor;
+        final long startOffset;
+        final int endAnchor;
+        final long endOffset;
+        
+        Rule(String channel, int dayMask, int monthMask, boolean off, int startAnchor, long startOffset, int endAnchor, long endOffset)
+        {
+            this.channel = channel;
+            this.dayMask = dayMask;
+            this.monthMask = monthMask;
+            this.off = off;
+            this.startAnchor = startAnchor;
+            this.startOffset = startOffset;
+            this.endAnchor = endAnchor;
+            this.endOffset = endOffset;
+        }
+        
+        @Override
+        public boolean equals(Object other)
+        {
+            if(!(other instanceof Rule))
+                return false;
+            Rule rule = (Rule)other;
+            return channel.equals(rule.channel) && dayMask == rule.dayMask && monthMask == rule.monthMask 
+                    && off == rule.off && startAnchor == rule.startAnchor && startOffset == rule.startOffset 
+                    && endAnchor == rule.endAnchor && endOffset == rule.endOffset;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return channel.hashCode() * 31 + (int)(startOffset ^ endOffset) + dayMask * 7 + monthMask;
+        }
+    }
+    
+    /**
+     * @return the built-in schedule; a single 'power' channel on GPIO #1 
+     *         that is turned on at sunset and off at sunrise
+     */
+    public static ScheduleRules defaults()
+    {
+        try
+        {
+            return parse("channel power gpio 1\npower daily sunset until sunrise\n");
+        }
+        catch(ParseException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Parse schedule rules from text.
+     * 
+     * @param text rule text
+     * @return parsed rules
+     * @throws ParseException if a line is invalid; the error offset is the (1 based) line number
+     */
+    public static ScheduleRules parse(String text) throws ParseException
+    {
+        try
+        {
+            return parse(new StringReader(text));
+        }
+        catch(IOException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Parse schedule rules from a reader.
+     * 
+     * @param reader rule text source
+     * @return parsed rules
+     * @throws ParseException if a line is invalid; the error offset is the (1 based) line number
+     * @throws IOException if the reader fails
+     */
+    public static ScheduleRules parse(Reader reader) throws ParseException, IOException
+    {
+        ScheduleRules result = new ScheduleRules();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while((line = lines.readLine()) != null)
+        {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if(comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim().toLowerCase();
+            if(line.length() == 0)
+                continue;
+            
+            try
+            {
+                result.parseLine(line.split("\\s+"));
+            }
+            catch(IllegalArgumentException ex)
+            {
+                throw new ParseException("line " + lineNumber + ": " + ex.getMessage(), lineNumber);
+            }
+        }
+        
+        // every rule must refer to a declared channel
+        for(Rule rule : result.rules)
+        {
+            if(!result.channelNames.contains(rule.channel))
+                throw new ParseException("undeclared channel '" + rule.channel + "'", 0);
+        }
+        
+        // every group must consist of declared channels and not hide a channel
+        for(Map.Entry<String, List<String>> group : result.groups.entrySet())
+        {
+            if(result.channelNames.contains(group.getKey()))
+                throw new ParseException("group '" + group.getKey() + "' has the name of a channel", 0);
+            for(String member : group.getValue())
+            {
+                if(!result.channelNames.contains(member))
+                    throw new ParseException("undeclared channel '" + member + "' in group '" + group.getKey() + "'", 0);
+            }
+        }
+        
+        // resolve the scene targets to channel states; later targets override earlier ones
+        for(Map.Entry<String, List<String>> scene : result.sceneTargets.entrySet())
+        {
+            Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+            for(String target : scene.getValue())
+            {
+                if(!isSceneTarget(target))
+                    throw new ParseException("expected '<channel|group>=on|off' instead of '" + target + "' in scene '" + scene.getKey() + "'", 0);
+                String[] fields = target.split("=");
+                List<String> channels = result.getGroup(fields[0]);
+                if(channels == null)
+                    throw new ParseException("unknown channel or group '" + fields[0] + "' in scene '" + scene.getKey() + "'", 0);
+                for(String channel : channels)
+                    states.put(channel, fields[1].equals("on"));
+            }
+            result.scenes.put(scene.getKey(), Collections.unmodifiableMap(states));
+        }
+        return result;
+    }
+    
+    /**
+     * @return true if the token has the form <code>&lt;channel|group&gt;=on|off</code>
+     */
+    private static boolean isSceneTarget(String token)
+    {
+        String[] fields = token.split("=", -1);
+        return fields.length == 2 && !fields[0].isEmpty() && (fields[1].equals("on") || fields[1].equals("off"));
+    }
+    
+    private void parseLine(String[] tokens)
+    {
+        if(tokens[0].equals("channel"))
+        {
+            // channel <name> gpio <pin>
+            if(tokens.length != 4 || !tokens[2].equals("gpio"))
+                throw new IllegalArgumentException("expected 'channel <name> gpio <pin>'");
+            int pin = parseNumber(tokens[3]);
+            if(pin < 1 || pin > 16)
+                throw new IllegalArgumentException("gpio pin must be between 1 and 16");
+            if(channelNames.contains(tokens[1]))
+                throw new IllegalArgumentException("duplicate channel '" + tokens[1] + "'");
+            if(indexOf(KEYWORDS, tokens[1]) > 0)
+                throw new IllegalArgumentException("'" + tokens[1] + "' is not a valid channel name");
+            if(channelPins.contains(pin))
+                throw new IllegalArgumentException("gpio pin " + pin + " is already assigned");
+            channelNames.add(tokens[1]);
+            channelPins.add(pin);
+            return;
+        }
+        if(tokens[0].equals("location"))
+        {
+            // location <latitude> <longitude>
+            if(tokens.length != 3)
+                throw new IllegalArgumentException("expected 'location <latitude> <longitude>'");
+            latitude = parseDegrees(tokens[1], 90);
+            longitude = parseDegrees(tokens[2], 180);
+            return;
+        }
+        if(tokens[0].equals("group"))
+        {
+            // group <name> <channel> [<channel> ...]
+            if(tokens.length < 3)
+                throw new IllegalArgumentException("expected 'group <name> <channel> [<channel> ...]'");
+            checkName(tokens[1]);
+            groups.put(tokens[1], Arrays.asList(tokens).subList(2, tokens.length));
+            return;
+        }
+        if(tokens[0].equals("scene"))
+        {
+            // scene <name> <channel|group>=on|off [...]
+            if(tokens.length < 3)
+                throw new IllegalArgumentException("expected 'scene <name> <channel|group>=on|off [...]'");
+            checkName(tokens[1]);
+            for(int index = 2; index < tokens.length; index++)
+            {
+                if(!isSceneTarget(tokens[index]))
+                    throw new IllegalArgumentException("expected '<channel|group>=on|off' instead of '" + tokens[index] + "'");
+            }
+            sceneTargets.put(tokens[1], Arrays.asList(tokens).subList(2, tokens.length));
+            return;
+        }
+        if(tokens[0].equals("zenith"))
+        {
+            // zenith official|civil|nautical|astronomical|<degrees>
+            if(tokens.length != 2)
+                throw new IllegalArgumentException("expected 'zenith <official|civil|nautical|astronomical|degrees>'");
+            zenith = parseZenith(tokens[1]);
+            return;
+        }
+
+        // <channel> <days> off
+        // <channel> <days> <start> until <end>
+        int[] masks = parseDays(tokens.length > 1 ? tokens[1] : "");
+        if(tokens.length == 3 && tokens[2].equals("off"))
+        {
+            rules.add(new Rule(tokens[0], masks[0], masks[1], true, ANCHOR_CLOCK, 0, ANCHOR_CLOCK, 0));
+            return;
+        }
+        if(tokens.length != 5 || !tokens[3].equals("until"))
+            throw new IllegalArgumentException("expected '<channel> <days> <start> until <end>' or '<channel> <days> off'");
+        long[] start = parseTime(tokens[2]);
+        long[] end = parseTime(tokens[4]);
+        rules.add(new Rule(tokens[0], masks[0], masks[1], false, (int)start[0], start[1], (int)end[0], end[1]));
+    }
+    
+    /**
+     * Check the name of a new group or scene.
+     */
+    private void checkName(String name)
+    {
+        if(indexOf(KEYWORDS, name) > 0)
+            throw new IllegalArgumentException("'" + name + "' is not a valid name");
+        if(groups.containsKey(name) || sceneTargets.containsKey(name))
+            throw new IllegalArgumentException("duplicate group or scene '" + name + "'");
+    }
+    
+    /**
+     * @return { day of week mask, month mask }
+     */
+    private static int[] parseDays(String days)
+    {
+        int dayMask = 0;
+        int monthMask = 0;
+        for(String token : days.split(","))
+        {
+            if(token.equals("daily"))
+            {
+                dayMask |= ALL_DAYS;
+            }
+            else if(token.equals("weekdays"))
+            {
+                dayMask |= rangeMask(2, 6, 7);
+            }
+            else if(token.equals("weekends"))
+            {
+                dayMask |= (1 << 1) | (1 << 7);
+            }
+            else
+            {
+                String[] range = token.split("-");
+                if(range.length > 2)
+                    throw new IllegalArgumentException("invalid day selector '" + token + "'");
+                int first = indexOf(DAY_NAMES, range[0]);
+                if(first > 0)
+                {
+                    int last = (range.length == 2) ? indexOf(DAY_NAMES, range[1]) : first;
+                    if(last < 0)
+                        throw new IllegalArgumentException("invalid day range '" + token + "'");
+                    dayMask |= rangeMask(first, last, 7);
+                    continue;
+                }
+                first = indexOf(MONTH_NAMES, range[0]);
+                int last = (range.length == 2) ? indexOf(MONTH_NAMES, range[1]) : first;
+                if(first < 0 || last < 0)
+                    throw new IllegalArgumentException("invalid day selector '" + token + "'");
+                monthMask |= rangeMask(first, last, 12);
+            }
+        }
+        return new int[] { (dayMask == 0) ? ALL_DAYS : dayMask, (monthMask == 0) ? ALL_MONTHS : monthMask };
+    }
+    
+    /**
+     * @return { anchor, offset in ms }
+     */
+    private static long[] parseTime(String time)
+    {
+        int anchor;
+        String offset;
+        if(time.startsWith("sunrise"))
+        {
+            anchor = ANCHOR_SUNRISE;
+            offset = time.substring(7);
+        }
+        else if(time.startsWith("sunset"))
+        {
+            anchor = ANCHOR_SUNSET;
+            offset = time.substring(6);
+        }
+        else
+        {
+            // HH:MM wall clock time
+            String[] fields = time.split(":");
+            if(fields.length != 2)
+                throw new IllegalArgumentException("invalid time '" + time + "'");
+            int hours = parseNumber(fields[0]);
+            int minutes = parseNumber(fields[1]);
+            if(hours > 23 || minutes > 59)
+                throw new IllegalArgumentException("invalid time '" + time + "'");
+            return new long[] { ANCHOR_CLOCK, (hours * 60 + minutes) * MILLIS_PER_MINUTE };
+        }
+        
+        if(offset.length() == 0)
+            return new long[] { anchor, 0 };
+        
+        // [+-][<n>h][<n>m]
+        long sign;
+        if(offset.charAt(0) == '+')
+            sign = 1;
+        else if(offset.charAt(0) == '-')
+            sign = -1;
+        else
+            throw new IllegalArgumentException("invalid offset '" + time + "'");
+        long minutes = 0;
+        int number = -1;
+        for(int index = 1; index < offset.length(); index++)
+        {
+            char c = offset.charAt(index);
+            if(c >= '0' && c <= '9')
+            {
+                number = ((number < 0) ? 0 : number * 10) + (c - '0');
+            }
+            else if((c == 'h' || c == 'm') && number >= 0)
+            {
+                minutes += (c == 'h') ? number * 60 : number;
+                number = -1;
+            }
+            else
+            {
+                throw new IllegalArgumentException("invalid offset '" + time + "'");
+            }
+        }
+        if(number >= 0 || minutes == 0)
+            throw new IllegalArgumentException("invalid offset '" + time + "'");
+        return new long[] { anchor, sign * minutes * MILLIS_PER_MINUTE };
+    }
+    
+    private static int rangeMask(int first, int last, int size)
+    {
+        int mask = 0;
+        for(int value = first; ; value = (value % size) + 1)
+        {
+            mask |= 1 << value;
+            if(value == last)
+                return mask;
+        }
+    }
+    
+    private static int indexOf(String[] names, String name)
+    {
+        for(int index = 0; index < names.length; index++)
+        {
+            if(names[index].equals(name))
+                return index + 1;
+        }
+        return -1;
+    }
+    
+    private static double parseDegrees(String value, double limit)
+    {
+        try
+        {
+            double degrees = Double.parseDouble(value);
+            if(Math.abs(degrees) > limit)
+                throw new IllegalArgumentException("'" + value + "' is out of range");
+            return degrees;
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("invalid number '" + value + "'");
+        }
+    }
+    
+    private static double parseZenith(String value)
+    {
+        if(value.equals("official"))
+            return SunriseSunset.OFFICIAL_ZENITH;
+        if(value.equals("civil"))
+            return SunriseSunset.CIVIL_ZENITH;
+        if(value.equals("nautical"))
+            return SunriseSunset.NAUTICAL_ZENITH;
+        if(value.equals("astronomical"))
+            return SunriseSunset.ASTRONOMICAL_ZENITH;
+        double degrees = parseDegrees(value, 180);
+        if(degrees < 80 || degrees > 120)
+            throw new IllegalArgumentException("zenith must be between 80 and 120 degrees");
+        return degrees;
+    }
+    
+    private static int parseNumber(String value)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("invalid number '" + value + "'");
+        }
+    }
+    
+    /**
+     * @return declared channel names in declaration order
+     */
+    public List<String> getChannelNames()
+    {
+        return Collections.unmodifiableList(channelNames);
+    }
+    
+    /**
+     * @return declared channel GPIO pins in declaration order
+     */
+    public List<Integer> getChannelPins()
+    {
+        return Collections.unmodifiableList(channelPins);
+    }
+    
+    List<Rule> getRules()
+    {
+        return rules;
+    }
+    
+    /**
+     * @return names of the declared groups in declaration order
+     */
+    public List<String> getGroupNames()
+    {
+        return new ArrayList<String>(groups.keySet());
+    }
+    
+    /**
+     * @param name group name, channel name or 'all'
+     * @return names of the channels of the group or null if there is no such group
+     */
+    public List<String> getGroup(String name)
+    {
+        if(name.equals("all"))
+            return getChannelNames();
+        if(channelNames.contains(name))
+            return Collections.singletonList(name);
+        List<String> group = groups.get(name);
+        return (group == null) ? null : Collections.unmodifiableList(group);
+    }
+    
+    /**
+     * @return names of the declared scenes in declaration order
+     */
+    public List<String> getSceneNames()
+    {
+        return new ArrayList<String>(scenes.keySet());
+    }
+    
+    /**
+     * @param name scene name
+     * @return state of each channel of the scene by channel name or null if there is no such scene
+     */
+    public Map<String, Boolean> getScene(String name)
+    {
+        return scenes.get(name);
+    }
+    
+    /**
+     * @return configured location latitude or null if the rules do not define a location
+     */
+    public Double getLatitude()
+    {
+        return latitude;
+    }
+    
+    /**
+     * @return configured location longitude or null if the rules do not define a location
+     */
+    public Double getLongitude()
+    {
+        return longitude;
+    }
+    
+    /**
+     * @return configured zenith of the sunrise/sunset events
+     */
+    public double getZenith()
+    {
+        return zenith;
+    }
+    
+    /**
+     * Compare the definition of a channel with its definition in another set of rules.
+     * 
+     * @param other rules to compare with
+     * @param name channel name
+     * @return true if the channel exists in both and has the same GPIO pin and rules
+     */
+    public boolean isSameChannel(ScheduleRules other, String name)
+    {
+        int index = channelNames.indexOf(name);
+        int otherIndex = other.channelNames.indexOf(name);
+        if(index < 0 || otherIndex < 0 || !channelPins.get(index).equals(other.channelPins.get(otherIndex)))
+            return false;
+        return getChannelRules(name).equals(other.getChannelRules(name));
+    }
+    
+    private List<Rule> getChannelRules(String name)
+    {
+        List<Rule> result = new ArrayList<Rule>();
+        for(Rule rule : rules)
+        {
+            if(rule.channel.equals(name))
+                result.add(rule);
+        }
+        return result;
+    }
+
+    /**
+     * Compile the rules for a location.
+     * 
+     * @param site sunrise/sunset calculator prepared for the location, zenith and time zone
+     * @return compiled schedule
+     */
+    public CompiledSchedule compile(PreparedSite site)
+    {
+        return new CompiledSchedule(this, site, null);
+    }
+    
+    /**
+     * Compile the rules for a location with randomized vacation mode plans.
+     * 
+     * @param site sunrise/sunset calculator prepared for the location, zenith and time zone
+     * @param vacation vacation mode planner (null to disable vacation mode)
+     * @return compiled schedule
+     */
+    public CompiledSchedule compile(PreparedSite site, VacationPlanner vacation)
+    {
+        return new CompiledSchedule(this, site, vacation);
+    }
+}
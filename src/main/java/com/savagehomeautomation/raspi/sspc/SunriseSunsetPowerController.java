@@ -22,21 +22,24 @@ package com.savagehomeautomation.raspi.sspc;
  * or implied. See the License for the specific language governing permissions and limitations under
  * the License.
  */
-import java.util.Calendar;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalInput;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-import com.pi4j.io.gpio.PinPullResistance;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
-import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
-import com.pi4j.io.gpio.event.GpioPinListenerDigital;
-import com.pi4j.io.gpio.trigger.GpioToggleStateTrigger;
+import com.savagehomeautomation.utility.EpochDays;
+import com.savagehomeautomation.utility.PreparedSite;
+import com.savagehomeautomation.utility.SolarEngineType;
+import com.savagehomeautomation.utility.SolarEvent;
 import com.savagehomeautomation.utility.SunriseSunset;
 
 /**
@@ -49,17 +52,88 @@ import com.savagehomeautomation.utility.SunriseSunset;
  */
 public class SunriseSunsetPowerController
 {
+    // maximum number of days to look ahead for the next sunrise/sunset or switch event
+    private static final int MAX_SEARCH_DAYS = 366;
+    
+    // number of days of planned switch events kept in the interval index
+    private static final int HORIZON_DAYS = 14;
+    
+    // bounds of the adaptive interval between output state reconciliations
+    private static final long RECONCILE_MIN_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static final long RECONCILE_MAX_INTERVAL = EventWaiter.MAX_SLEEP;
+    
+    // default location of the persisted boot plan
+    private static final String DEFAULT_PLAN_FILE = "sspc.plan";
+    
+    /**
+     * This interface is notified of every planned switch event that is executed.
+     */
+    public interface SwitchListener
+    {
+        /**
+         * @param channel channel index
+         * @param state true if the channel was turned ON
+         * @param time planned time of the switch event
+         */
+        void switched(int channel, boolean state, long time);
+    }
+    
     // internal class members
-    private Timer timer;
-    private SunriseSunset ss; 
+    private final OutputBackend backend;
+    private final TimeSource clock;
+    private EventWaiter waiter;
+    private ConfigWatcher configWatcher;
+    private SwitchListener switchListener;
+    private URI telemetryCollector;
+    private volatile Telemetry telemetry;
+    private long overrideCount;
+    private HorizonTask horizonTask;
+    private PreparedSite site; 
     private Double latitude;
     private Double longitude;
+    private Double defaultLatitude;
+    private Double defaultLongitude;
+    private SolarEngineType engineType = SolarEngineType.NOAA;
     private EventType nextEvent;
     private Date nextSunriseDate; 
     private Date nextSunsetDate;
-    private GpioController gpio;
-    private GpioPinDigitalOutput powerController;
-    private GpioPinDigitalInput overrideSwitch;
+    private String rulesFile;
+    private ScheduleRules rules;
+    private VacationPlanner vacation;
+    private CompiledSchedule schedule;
+    private SwitchIntervalIndex index;
+    private SwitchTask[] pendingTasks;
+    private boolean[] overridden;
+    private boolean[] suspected;
+    private ReconcileTask reconcileTask;
+    private long reconcileInterval = RECONCILE_MIN_INTERVAL;
+    private long reconcileChecks;
+    private long reconcileMismatches;
+    private String planFile = DEFAULT_PLAN_FILE;
+    private long startupMillis = -1;
+    private OutputBackend.Output[] outputsByPin = new OutputBackend.Output[OutputBackend.MAX_PIN + 1];
+    private OutputBackend.Output[] outputs;
+    private OutputBackend.Output powerController;
+    
+    /**
+     * Create a controller for the Raspberry Pi GPIO pins.
+     */
+    public SunriseSunsetPowerController()
+    {
+        this(new GpioOutputBackend(), TimeSource.SYSTEM);
+    }
+    
+    /**
+     * Create a controller for the given outputs and clock.
+     * 
+     * @param backend power controller outputs and override switch
+     * @param clock source of wall-clock and monotonic time
+     */
+    public SunriseSunsetPowerController(OutputBackend backend, TimeSource clock)
+    {
+        this.backend = backend;
+        this.clock = clock;
+    }
     
     /**
      * Start the controller.
@@ -68,6 +142,22 @@ public class SunriseSunsetPowerController
      * @param args command line arguments
      */
     public void start(String[] args)
+    {
+        startup(args);
+        
+        // main program loop; 
+        // process user input or wait for user to abort with CTRL-C
+        for(;;)
+            executeCommand(System.console().readLine());
+    }
+    
+    /**
+     * Start the controller without the console loop: determine the location, 
+     * assert the planned output states and schedule the switch events.
+     * 
+     * @param args command line arguments
+     */
+    public void startup(String[] args)
     {
         // display welcome screen
         displayWelcome();
@@ -93,6 +183,62 @@ public class SunriseSunsetPowerController
                 }
                 catch(Exception ex){}
             }
+            else if(arg.startsWith("-engine="))
+            {
+                try
+                {
+                    engineType = SolarEngineType.fromName(arg.substring(8));
+                    System.out.println("ENGINE    = " + engineType.getEngine().getName());
+                }
+                catch(Exception ex){}
+            }
+            else if(arg.startsWith("-config=") || arg.startsWith("-rules="))
+            {
+                rulesFile = arg.substring(arg.indexOf('=') + 1);
+                System.out.println("CONFIG    = " + rulesFile);
+            }
+            else if(arg.startsWith("-plan="))
+            {
+                planFile = arg.substring(6);
+                System.out.println("PLAN      = " + planFile);
+            }
+            else if(arg.startsWith("-telemetry="))
+            {
+                // telemetry is only started once the outputs have been asserted
+                try
+                {
+                    telemetryCollector = URI.create(arg.substring(11));
+                    System.out.println("TELEMETRY = " + telemetryCollector);
+                }
+                catch(IllegalArgumentException ex)
+                {
+                    reportInvalidTelemetry(ex);
+                }
+            }
+            else if(arg.startsWith("-vacation="))
+            {
+                try
+                {
+                    vacation = new VacationPlanner(Long.parseLong(arg.substring(10)));
+                    System.out.println("VACATION  = SEED " + vacation.getSeed());
+                }
+                catch(Exception ex){}
+            }
+        }
+
+        // assert the output states from the persisted boot plan (if any) 
+        // before prompting for input or doing any schedule calculation
+        applyBootPlan();
+        
+        // load the configuration file; a location defined there overrides the arguments
+        rules = loadRules();
+        defaultLatitude = latitude;
+        defaultLongitude = longitude;
+        if(rules.getLatitude() != null)
+        {
+            latitude = rules.getLatitude();
+            longitude = rules.getLongitude();
+            System.out.println("LOCATION  = " + latitude + ", " + longitude + " (CONFIG)");
         }
 
         // prompt user for latitude if needed
@@ -102,171 +248,336 @@ public class SunriseSunsetPowerController
         // prompt user for longitude if needed
         if(longitude == null)
             promptForLongitude();
+        
+        // the location of the arguments (or prompts) applies whenever the configuration defines none
+        if(defaultLatitude == null && rules.getLatitude() == null)
+        {
+            defaultLatitude = latitude;
+            defaultLongitude = longitude;
+        }
 
         // display welcome user options menu
         displayMenuOptions();
 
-        // create timer, GPIO controller, and sunrise/sunset calculator
-        timer = new Timer();
-        gpio  = GpioFactory.getInstance();
-        ss = new SunriseSunset();
-        
-        // provision GPIO pins : 
-        //   GPIO PIN #0 == OVERRIDE SWITCH
-        //   GPIO PIN #1 == POWER CONTROLLER
-        overrideSwitch = gpio.provisionDigitalInputPin(RaspiPin.GPIO_00, "OverrideSwitch", PinPullResistance.PULL_DOWN);
-        powerController = gpio.provisionDigitalOutputPin(RaspiPin.GPIO_01, "PowerController");
-        
-        // force power controller to OFF if the program is shutdown
-        powerController.setShutdownOptions(true,PinState.LOW);
-
-        // create a gpio toggle trigger on the override switch input pin; 
-        // when the input is detected, toggle the power controller state
-        overrideSwitch.addTrigger(new GpioToggleStateTrigger(PinState.HIGH, powerController));
+        // create event waiter and the sunrise/sunset calculator prepared for this location
+        waiter = new EventWaiter("SSPC-Scheduler", clock);
+        site = new SunriseSunset(engineType.getEngine()).prepare(latitude, longitude, rules.getZenith(), TimeZone.getDefault());
         
-        // create a listener for the override switch
-        overrideSwitch.addListener(new OverrideSwitchListener());
+        // compile the channel schedule rules for this location
+        schedule = rules.compile(site, vacation);
         
-        // schedule starting event; apply initial power controller state
-        switch(scheduleNextEvent())
+        // provision GPIO output pins : 
+        //   GPIO PIN #N == POWER CONTROLLER FOR EACH SCHEDULE CHANNEL (default: #1)
+        outputs = new OutputBackend.Output[schedule.getChannelCount()];
+        pendingTasks = new SwitchTask[schedule.getChannelCount()];
+        overridden = new boolean[schedule.getChannelCount()];
+        suspected = new boolean[schedule.getChannelCount()];
+        for(int channel = 0; channel < outputs.length; channel++)
+            outputs[channel] = provisionOutput(schedule.getChannelPin(channel), schedule.getChannelName(channel));
+        
+        // turn OFF any pin left over from a boot plan that is no longer used by the schedule 
+        for(OutputBackend.Output output : outputsByPin)
         {
-            case SunriseToday:
-            {
-                // if the next event is sunrise, then turn power ON
-                powerController.high();
-                break;
-            }
-            case SunsetToday:
-            {
-                // if the next event is sunset, then turn power OFF
-                powerController.low();
-                break;
-            }
-            case SunriseTomorrow:
-            {
-                // if the next event is sunrise, then turn power ON
-                powerController.high();
-                break;
-            }
+            if(output != null && !Arrays.asList(outputs).contains(output))
+                output.setState(false);
         }
-
-        // main program loop; 
-        // process user input or wait for user to abort with CTRL-C
-        for(;;)
+        
+        // build the planned switch event index, apply initial power 
+        // controller states and schedule starting events
+        long now = clock.currentTimeMillis();
+        long started = System.nanoTime();
+        index = new SwitchIntervalIndex(schedule, now, HORIZON_DAYS);
+        long planMicros = (System.nanoTime() - started) / 1000;
+        scheduleAllChannels(now);
+        if(startupMillis < 0)
+            reportStartup("SCHEDULE");
+        updateSolarEvents();
+        scheduleHorizonUpdate();
+        saveBootPlan();
+        
+        // resolving the unit name may block on DNS; the outputs are already asserted
+        if(telemetryCollector != null)
+            startTelemetry(planMicros);
+        
+        // re-plan all channels if the wall clock is stepped (i.e. NTP sync after boot)
+        waiter.setClockStepListener(new ClockStepHandler());
+        
+        // provision the (non-critical) override switch; 
+        // it toggles the power controller of the first channel
+        powerController = outputs[0];
+        backend.provisionOverrideSwitch(powerController, new OverrideSwitchListener());
+        
+        // apply changes to the configuration file while running
+        if(rulesFile != null)
+            startConfigWatcher();
+    }
+    
+    /**
+     * Stop scheduling switch events and watching the configuration file.
+     */
+    public void shutdown()
+    {
+        if(configWatcher != null)
+            configWatcher.stop();
+        waiter.stop();
+        if(telemetry != null)
+            telemetry.stop();
+    }
+    
+    /**
+     * @param listener listener to notify of executed switch events (may be null)
+     */
+    public synchronized void setSwitchListener(SwitchListener listener)
+    {
+        switchListener = listener;
+    }
+    
+    /**
+     * @return number of output state reconciliations performed
+     */
+    public synchronized long getReconcileChecks()
+    {
+        return reconcileChecks;
+    }
+    
+    /**
+     * @return number of output state mismatches corrected
+     */
+    public synchronized long getReconcileMismatches()
+    {
+        return reconcileMismatches;
+    }
+    
+    /**
+     * Execute a single console command; also used to drive the 
+     * controller programmatically.
+     * 
+     * @param command command as entered on the console
+     */
+    public void executeCommand(String command)
+    {
+        String[] tokens = command.trim().toLowerCase().split("\\s+");
+        if((tokens[0].equals("on") || tokens[0].equals("off")) && tokens.length <= 2)
         {
-            String command = System.console().readLine();
-            if(command.equalsIgnoreCase("on"))
+            // turn ON/OFF power of all channels or of a group
+            String group = (tokens.length == 2) ? tokens[1] : "all";
+            if(!switchGroup(group, tokens[0].equals("on")))
             {
-                // turn ON power
-                powerController.high();
-                
                 System.out.println("---------------------------------");
-                System.out.println("[OVERRIDE] POWER STATE ON");
+                System.out.println("[UNKNOWN GROUP] " + group);
                 System.out.println("---------------------------------");
-
             }
-            else if(command.equalsIgnoreCase("off"))
+        }
+        else if(tokens[0].equals("scene") && tokens.length == 2)
+        {
+            // switch the channels of a scene
+            if(!applyScene(tokens[1]))
             {
-                // turn OFF power
-                powerController.low();
-                
                 System.out.println("---------------------------------");
-                System.out.println("[OVERRIDE] POWER STATE OFF");
+                System.out.println("[UNKNOWN SCENE] " + tokens[1]);
                 System.out.println("---------------------------------");
             }
-            else if(command.equalsIgnoreCase("status"))
-            {
-                // determine and display current power controller state
-                if(powerController.isHigh())
-                {
-                    System.out.println("---------------------------------");
-                    System.out.println("[STATUS] POWER STATE IS : ON");
-                    System.out.println("---------------------------------");
-                }
-                else
-                {
-                    System.out.println("---------------------------------");
-                    System.out.println("[STATUS] POWER STATE IS : OFF");
-                    System.out.println("---------------------------------");
-                }
-            }
-            else if(command.equalsIgnoreCase("time"))
+        }
+        else if(command.equalsIgnoreCase("groups"))
+        {
+            // display the groups and scenes of the configuration
+            synchronized(this)
             {
-                // display current date/time
                 System.out.println("---------------------------------");
-                System.out.println("[CURRENT TIME] ");
-                System.out.println(new Date());
+                for(String group : rules.getGroupNames())
+                    System.out.println("[GROUP] " + group + " : " + rules.getGroup(group));
+                for(String scene : rules.getSceneNames())
+                    System.out.println("[SCENE] " + scene + " : " + rules.getScene(scene));
                 System.out.println("---------------------------------");
             }
-            else if(command.equalsIgnoreCase("sunrise"))
+        }
+        else if(command.equalsIgnoreCase("status"))
+        {
+            // determine and display current (and planned) power controller states
+            displayStatus();
+        }
+        else if(command.equalsIgnoreCase("time"))
+        {
+            // display current date/time
+            System.out.println("---------------------------------");
+            System.out.println("[CURRENT TIME] ");
+            System.out.println(new Date(clock.currentTimeMillis()));
+            System.out.println("---------------------------------");
+        }
+        else if(command.equalsIgnoreCase("sunrise"))
+        {
+            // display sunrise date/time
+            synchronized(this)
             {
-                // display sunrise date/time
                 System.out.println("---------------------------------");
                 System.out.println("[NEXT SUNRISE] ");
                 System.out.println(" @ " + nextSunriseDate);
                 System.out.println("---------------------------------");
             }
-            else if(command.equalsIgnoreCase("sunset"))
+        }
+        else if(command.equalsIgnoreCase("sunset"))
+        {
+            // display sunset date/time
+            synchronized(this)
             {
-                // display sunset date/time
                 System.out.println("---------------------------------");
                 System.out.println("[NEXT SUNSET] ");
                 System.out.println(" @ " + nextSunsetDate);
                 System.out.println("---------------------------------");
             }
-            else if(command.equalsIgnoreCase("coord"))
+        }
+        else if(command.equalsIgnoreCase("coord"))
+        {
+            synchronized(this)
             {
                 System.out.println("---------------------------------");
                 System.out.println("[LONGITUDE] = " + longitude);
                 System.out.println("[LATITUDE]  = " + latitude);
                 System.out.println("---------------------------------");
             }
-            else if(command.equalsIgnoreCase("next"))
+        }
+        else if(command.equalsIgnoreCase("next"))
+        {
+            // display next scheduled event
+            displayNextEvents();
+        }
+        else if(command.toLowerCase().startsWith("vacation"))
+        {
+            // display or change the vacation mode
+            String option = command.substring(8).trim();
+            if(option.equalsIgnoreCase("on"))
+                setVacationMode(new VacationPlanner(clock.currentTimeMillis()));
+            else if(option.equalsIgnoreCase("off"))
+                setVacationMode(null);
+            else if(!option.isEmpty())
             {
-                // display next scheduled event
-                switch(nextEvent)
+                try
+                {
+                    setVacationMode(new VacationPlanner(Long.parseLong(option)));
+                }
+                catch(NumberFormatException ex)
                 {
-                    case SunriseToday:
-                    {
-                        System.out.println("-----------------------------------");
-                        System.out.println("[NEXT EVENT] SUNRISE TODAY ");
-                        System.out.println("  @ " + nextSunriseDate);
-                        System.out.println("-----------------------------------");
-                        break;
-                    }
-                    case SunsetToday:
-                    {
-                        System.out.println("-----------------------------------");
-                        System.out.println("[NEXT EVENT] SUNSET TODAY");
-                        System.out.println("  @ " + nextSunsetDate);
-                        System.out.println("-----------------------------------");
-                        break;
-                    }
-                    case SunriseTomorrow:
-                    {
-                        System.out.println("-----------------------------------");
-                        System.out.println("[NEXT EVENT] SUNRISE TOMORROW");
-                        System.out.println("  @ " + nextSunriseDate);
-                        System.out.println("-----------------------------------");
-                        break;
-                    }
-                }                
+                    System.out.println("---------------------------------");
+                    System.out.println("[INVALID VACATION SEED]");
+                    System.out.println("---------------------------------");
+                    return;
+                }
             }
-            else if(command.equalsIgnoreCase("help"))
-            {
-                // display user options menu
-                displayMenuOptions();                
-            }            
-            else 
+            
+            synchronized(this)
             {
-                // un-handled command
                 System.out.println("---------------------------------");
-                System.out.println("[INVALID COMMAND ENTRY]");
+                System.out.println("[VACATION] MODE IS " + ((vacation == null) ? "OFF" : "ON (SEED " + vacation.getSeed() + ")"));
                 System.out.println("---------------------------------");
             }
         }
+        else if(command.equalsIgnoreCase("help"))
+        {
+            // display user options menu
+            displayMenuOptions();                
+        }            
+        else 
+        {
+            // un-handled command
+            System.out.println("---------------------------------");
+            System.out.println("[INVALID COMMAND ENTRY]");
+            System.out.println("---------------------------------");
+        }
     }
 
+    /**
+     * This method displays the current and planned state of every channel.  It 
+     * holds the controller lock so a concurrent reload cannot pair the channels 
+     * of one configuration with the plan of another.
+     */
+    private synchronized void displayStatus()
+    {
+        long time = clock.currentTimeMillis();
+        System.out.println("---------------------------------");
+        for(int channel = 0; channel < outputs.length; channel++)
+        {
+            System.out.println("[STATUS] " + schedule.getChannelName(channel) + " POWER STATE IS : " + (outputs[channel].isHigh() ? "ON" : "OFF")
+                    + " (PLANNED: " + (index.stateAt(channel, time) ? "ON" : "OFF") + ")"
+                    + (overridden[channel] ? " OVERRIDDEN" : ""));
+        }
+        System.out.println("[RECONCILE] " + reconcileChecks + " CHECKS, " + reconcileMismatches + " MISMATCHES CORRECTED, " 
+                + "CHECKING EVERY " + (reconcileInterval / 1000) + " SECONDS");
+        if(telemetry != null)
+        {
+            System.out.println("[TELEMETRY] " + telemetry.getSent() + " BATCHES SENT, " + telemetry.getFailures() + " FAILED, " 
+                    + telemetry.getDropped() + " SAMPLES DROPPED");
+        }
+        System.out.println("---------------------------------");
+    }
+    
+    /**
+     * This method displays the next sunrise/sunset event and the next switch 
+     * event of every channel, under the controller lock.
+     */
+    private synchronized void displayNextEvents()
+    {
+        switch(nextEvent)
+        {
+            case SunriseToday:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] SUNRISE TODAY ");
+                System.out.println("  @ " + nextSunriseDate);
+                System.out.println("-----------------------------------");
+                break;
+            }
+            case SunsetToday:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] SUNSET TODAY");
+                System.out.println("  @ " + nextSunsetDate);
+                System.out.println("-----------------------------------");
+                break;
+            }
+            case SunriseTomorrow:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] SUNRISE TOMORROW");
+                System.out.println("  @ " + nextSunriseDate);
+                System.out.println("-----------------------------------");
+                break;
+            }
+            case SunriseLater:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] SUNRISE (POLAR NIGHT)");
+                System.out.println("  @ " + nextSunriseDate);
+                System.out.println("-----------------------------------");
+                break;
+            }
+            case SunsetLater:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] SUNSET (MIDNIGHT SUN)");
+                System.out.println("  @ " + nextSunsetDate);
+                System.out.println("-----------------------------------");
+                break;
+            }
+            case PolarNight:
+            case PolarDay:
+            {
+                System.out.println("-----------------------------------");
+                System.out.println("[NEXT EVENT] NONE (" + nextEvent + ")");
+                System.out.println("-----------------------------------");
+                break;
+            }
+        }
+        
+        // display next scheduled switch event per channel
+        for(int channel = 0; channel < outputs.length; channel++)
+        {
+            SwitchTask task = pendingTasks[channel];
+            System.out.println("[NEXT SWITCH] " + schedule.getChannelName(channel) + " " 
+                    + ((task == null) ? "NONE" : (task.state ? "ON" : "OFF") + " @ " + new Date(task.time)));
+        }
+        System.out.println("-----------------------------------");
+    }
+    
     /**
      * This method will print the program's welcome message 
      * on the Raspberry Pi's console screen.
@@ -353,12 +664,17 @@ public class SunriseSunsetPowerController
         System.out.println("");
         System.out.println("  'on'      to force power controller to ON state");
         System.out.println("  'off'     to force power controller to OFF state");
+        System.out.println("  'on <group>' / 'off <group>' for a group only.");
+        System.out.println("  'scene <name>' to switch the channels of a scene.");
+        System.out.println("  'groups'  to display the groups and scenes.");
         System.out.println("  'status'  to see current power controller state");
         System.out.println("  'sunrise' to display sunrise time.");
         System.out.println("  'sunset'  to display sunset time.");
         System.out.println("  'next'    to display next scheduled event.");
         System.out.println("  'time'    to display current time.");
         System.out.println("  'coord'   to display longitude and latitude.");
+        System.out.println("  'vacation [on|off|<seed>]' to display or change");
+        System.out.println("            the randomized vacation mode.");
         System.out.println("  'help'    to display this menu.");
         System.out.println("");
         System.out.println("PRESS 'CTRL-C' TO TERMINATE");
@@ -368,143 +684,827 @@ public class SunriseSunsetPowerController
     }
     
 
-    private synchronized EventType scheduleNextEvent()
+    /**
+     * This method provisions an output pin on first use; the GPIO backend
+     * only creates the GPIO controller when the first pin is needed.
+     * 
+     * @param pin GPIO pin number
+     * @param name pin name
+     * @return provisioned output pin
+     */
+    private OutputBackend.Output provisionOutput(int pin, String name)
     {
-        // get sunrise and sunset time for today
-        Date today = new Date();
-        Date today_sunrise = ss.getSunrise(latitude, longitude);
-        Date today_sunset = ss.getSunset(latitude, longitude);  
-
-        // get sunrise and sunset time for tomorrow
-        Calendar tomorrow = Calendar.getInstance();
-        tomorrow.roll(Calendar.DATE, true);
-        Date tomorrow_sunrise = ss.getSunrise(latitude, longitude, tomorrow.getTime());
-        Date tomorrow_sunset = ss.getSunset(latitude, longitude, tomorrow.getTime());
-
-        // determine if sunrise or sunset is the next event
-        if(today.after(today_sunset))
+        OutputBackend.Output output = outputsByPin[pin];
+        if(output == null)
         {
-            // get tomorrow's date time
-            System.out.println("-----------------------------------");
-            System.out.println("[SCHEDULED] NEXT EVENT: SUNRISE    ");
-            System.out.println("  @ " + tomorrow_sunrise);
-            System.out.println("-----------------------------------");
-            
-            // schedule tomorrow's sunrise as next event
-            timer.schedule(new SunriseTask(), tomorrow_sunrise);
-            
-            // set cache next sunrise and sunset variables
-            nextSunriseDate = tomorrow_sunrise;
-            nextSunsetDate = tomorrow_sunset;
-
-            // return next event
-            nextEvent = EventType.SunriseTomorrow;
-            return nextEvent;
+            output = backend.provisionOutput(pin, name);
+            outputsByPin[pin] = output;
         }
-        else if(today.after(today_sunrise))
+        return output;
+    }
+    
+    /**
+     * This method applies the output states planned by the persisted boot 
+     * plan, if there is one covering the current time.
+     */
+    private void applyBootPlan()
+    {
+        BootPlan plan = BootPlan.read(new File(planFile));
+        long now = clock.currentTimeMillis();
+        if(plan == null || !plan.isValidAt(now))
         {
-            System.out.println("-----------------------------------");
-            System.out.println("[SCHEDULED] NEXT EVENT: SUNSET     ");
-            System.out.println("  @ " + today_sunset);
-            System.out.println("-----------------------------------");
-            
-            // schedule sunset as next event
-            timer.schedule(new SunsetTask(), today_sunset);
-
-            // set cache next sunrise and sunset variables
-            nextSunriseDate = tomorrow_sunrise;
-            nextSunsetDate = today_sunset;
-            
-            // return next event
-            nextEvent = EventType.SunsetToday;
-            return nextEvent;            
+            System.out.println("[STARTUP] NO VALID BOOT PLAN");
+            return;
         }
-        else
+        
+        for(int channel = 0; channel < plan.getChannelCount(); channel++)
         {
-            System.out.println("-----------------------------------");
-            System.out.println("[SCHEDULED] NEXT EVENT: SUNRISE    ");
-            System.out.println("  @ " + today_sunrise);
-            System.out.println("-----------------------------------");
-            
-            // schedule sunrise as next event
-            timer.schedule(new SunriseTask(), today_sunrise);
-
-            // set cache next sunrise and sunset variables
-            nextSunriseDate = today_sunrise;
-            nextSunsetDate = today_sunset;
-            
-            // return next event
-            nextEvent = EventType.SunriseToday;
-            return nextEvent;            
+            int pin = plan.getChannelPin(channel);
+            if(pin > 0 && pin <= OutputBackend.MAX_PIN)
+                provisionOutput(pin, plan.getChannelName(channel)).setState(plan.stateAt(channel, now));
         }
+        reportStartup("BOOT PLAN");
     }
     
     /**
-     * This class is invoked as a callback at sunrise time and it  
-     * turns on the attached power controller to the Raspberry Pi 
-     * using the Pi4J API.
-     * 
-     * @author Robert Savage
+     * This method persists the current switch event index as boot plan.
      */
-    private class SunriseTask extends TimerTask
+    private void saveBootPlan()
     {
-        @Override
-        public void run()
+        try
         {
-            // turn OFF power
-            powerController.low();
-            
-            System.out.println("-----------------------------------");
-            System.out.println("[SUNRISE] POWER HAS BEEN TURNED OFF");
-            System.out.println("-----------------------------------");
-            
-            // schedule next event
-            scheduleNextEvent();
+            BootPlan.write(new File(planFile), schedule, index, clock.currentTimeMillis());
+        }
+        catch(Exception ex)
+        {
+            System.err.println("[ERROR] Unable to save boot plan: " + ex.getMessage());
         }
     }
     
     /**
-     * This class is invoked as a callback at sunset time and it  
-     * turns off the attached power controller to the Raspberry Pi 
-     * using the Pi4J API.
+     * This method records and displays the time from JVM start until the 
+     * output states were first asserted.
      * 
-     * @author Robert Savage
+     * @param source where the asserted states came from
      */
-    private class SunsetTask extends TimerTask
+    private void reportStartup(String source)
     {
-        @Override
-        public void run()
+        startupMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println("---------------------------------");
+        System.out.println("[STARTUP] OUTPUT STATES FROM " + source);
+        System.out.println("  ASSERTED " + startupMillis + " ms AFTER JVM START");
+        System.out.println("---------------------------------");
+    }
+    
+    /**
+     * This method starts reporting telemetry to the collector of the arguments 
+     * and records the samples of the startup, which precede it.
+     * 
+     * @param planMicros time in us to build the initial switch event index
+     */
+    private void startTelemetry(long planMicros)
+    {
+        try
         {
-            // turn ON power
-            powerController.high();
-            
-            System.out.println("-----------------------------------");
-            System.out.println("[SUNSET]  POWER HAS BEEN TURNED ON");
-            System.out.println("-----------------------------------");
-            
-            // schedule next event
-            scheduleNextEvent();            
+            Telemetry started = new Telemetry(telemetryCollector, getUnitName(), clock);
+            started.record(Telemetry.STARTUP_TIME, -1, startupMillis);
+            started.record(Telemetry.PLAN_TIME, -1, planMicros);
+            started.start();
+            telemetry = started;
+        }
+        catch(IllegalArgumentException ex)
+        {
+            reportInvalidTelemetry(ex);
         }
     }
     
     /**
-     * This listener class is invoked as a callback when a state change
-     * is detected on the override input switch (if implemented; optional)
+     * @param ex rejection of the telemetry collector address
+     */
+    private static void reportInvalidTelemetry(IllegalArgumentException ex)
+    {
+        System.err.println("***************************************************");
+        System.err.println("[ERROR] Invalid telemetry collector: " + ex.getMessage());
+        System.err.println("***************************************************");
+    }
+    
+    /**
+     * This method records a telemetry sample if telemetry is enabled.
      * 
-     * @author Robert Savage
+     * @param type sample type
+     * @param channel channel index (or -1 if not channel related)
+     * @param value sample value
      */
-    private class OverrideSwitchListener implements GpioPinListenerDigital
+    private void record(int type, int channel, long value)
+    {
+        if(telemetry != null)
+            telemetry.record(type, channel, value);
+    }
+    
+    /**
+     * @return name of this unit as reported to the telemetry collector
+     */
+    private static String getUnitName()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch(IOException ex)
+        {
+            return "sspc";
+        }
+    }
+    
+    /**
+     * This method loads the channel schedule rules from the rules file 
+     * (if one was provided) or returns the built-in sunset/sunrise rule.
+     * 
+     * @return schedule rules
+     */
+    private ScheduleRules loadRules()
+    {
+        if(rulesFile == null)
+            return ScheduleRules.defaults();
+        
+        try
+        {
+            return readRules();
+        }
+        catch(Exception ex)
+        {
+            System.err.println("***************************************************");
+            System.err.println("[ERROR] Invalid rules file: " + ex.getMessage());
+            System.err.println("        Using default sunset/sunrise schedule.");
+            System.err.println("***************************************************");
+            return ScheduleRules.defaults();
+        }
+    }
+    
+    /**
+     * This method parses the rules file.
+     * 
+     * @return schedule rules
+     * @throws Exception if the file cannot be read or is invalid
+     */
+    private ScheduleRules readRules() throws Exception
+    {
+        FileReader reader = new FileReader(rulesFile);
+        try
+        {
+            return ScheduleRules.parse(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+    
+    /**
+     * This method starts watching the configuration file for changes.
+     */
+    private void startConfigWatcher()
+    {
+        try
+        {
+            configWatcher = new ConfigWatcher(new File(rulesFile), new ConfigReloadHandler());
+            configWatcher.start();
+        }
+        catch(IOException ex)
+        {
+            System.err.println("***************************************************");
+            System.err.println("[ERROR] Unable to watch configuration file: " + ex.getMessage());
+            System.err.println("        Changes will apply after a restart.");
+            System.err.println("***************************************************");
+        }
+    }
+    
+    /**
+     * This method applies a changed configuration file as a diff against the 
+     * running schedule.  Only channels whose pin or rules changed (or that are 
+     * anchored to sunrise/sunset when the location or zenith changed) are 
+     * re-planned; all other channels keep their indexed transitions and their 
+     * pending events.  Pins already in use are never provisioned again.
+     */
+    private synchronized void reloadConfig()
+    {
+        long started = System.nanoTime();
+        ScheduleRules updated;
+        try
+        {
+            updated = readRules();
+        }
+        catch(Exception ex)
+        {
+            System.err.println("***************************************************");
+            System.err.println("[ERROR] Invalid configuration file: " + ex.getMessage());
+            System.err.println("        Keeping the current configuration.");
+            System.err.println("***************************************************");
+            return;
+        }
+        
+        // a changed location or zenith affects every channel anchored to sunrise/sunset; 
+        // without a location in the file, the location of the arguments applies again
+        double updatedLatitude = latitude;
+        double updatedLongitude = longitude;
+        if(updated.getLatitude() != null)
+        {
+            updatedLatitude = updated.getLatitude();
+            updatedLongitude = updated.getLongitude();
+        }
+        else if(defaultLatitude != null)
+        {
+            updatedLatitude = defaultLatitude;
+            updatedLongitude = defaultLongitude;
+        }
+        boolean siteChanged = updatedLatitude != site.getLatitude() || updatedLongitude != site.getLongitude() 
+                || updated.getZenith() != site.getZenith();
+        if(siteChanged)
+        {
+            latitude = updatedLatitude;
+            longitude = updatedLongitude;
+            site = new SunriseSunset(site.getEngine()).prepare(latitude, longitude, updated.getZenith(), site.getTimeZone());
+        }
+        CompiledSchedule updatedSchedule = updated.compile(site, vacation);
+        
+        // match the new channels with the current ones
+        int count = updatedSchedule.getChannelCount();
+        int[] reuse = new int[count];
+        int changed = 0;
+        int added = 0;
+        for(int channel = 0; channel < count; channel++)
+        {
+            String name = updatedSchedule.getChannelName(channel);
+            int current = schedule.indexOf(name);
+            boolean same = rules.isSameChannel(updated, name) && !(siteChanged && updatedSchedule.usesSolarEvents(channel));
+            reuse[channel] = same ? current : -1;
+            if(current < 0)
+                added++;
+            else if(!same)
+                changed++;
+        }
+        int removed = schedule.getChannelCount() - (count - added);
+        if(!siteChanged && changed == 0 && added == 0 && removed == 0)
+        {
+            // groups and scenes may still have changed
+            rules = updated;
+            System.out.println("[CONFIG] NO SCHEDULE CHANGES");
+            return;
+        }
+        
+        long now = clock.currentTimeMillis();
+        SwitchIntervalIndex updatedIndex = new SwitchIntervalIndex(updatedSchedule, index, reuse, now);
+        OutputBackend.Output[] updatedOutputs = new OutputBackend.Output[count];
+        for(int channel = 0; channel < count; channel++)
+            updatedOutputs[channel] = provisionOutput(updatedSchedule.getChannelPin(channel), updatedSchedule.getChannelName(channel));
+        
+        // unchanged channels keep their override; a pending event is only kept 
+        // when the channel keeps its index, since the event refers to the index
+        SwitchTask[] updatedTasks = new SwitchTask[count];
+        boolean[] updatedOverrides = new boolean[count];
+        for(int channel = 0; channel < count; channel++)
+        {
+            if(reuse[channel] >= 0)
+                updatedOverrides[channel] = overridden[reuse[channel]];
+            if(reuse[channel] == channel)
+                updatedTasks[channel] = pendingTasks[channel];
+        }
+        for(int channel = 0; channel < pendingTasks.length; channel++)
+        {
+            if(pendingTasks[channel] != null && !(channel < count && reuse[channel] == channel))
+                pendingTasks[channel].cancel();
+        }
+        
+        // turn OFF pins that are no longer used by any channel
+        for(OutputBackend.Output output : outputs)
+        {
+            if(!Arrays.asList(updatedOutputs).contains(output))
+                output.setState(false);
+        }
+        
+        rules = updated;
+        schedule = updatedSchedule;
+        index = updatedIndex;
+        outputs = updatedOutputs;
+        pendingTasks = updatedTasks;
+        overridden = updatedOverrides;
+        suspected = new boolean[count];
+        
+        // apply the planned state of changed channels and schedule their next event; 
+        // unchanged channels at a new index keep their state and get their event again
+        for(int channel = 0; channel < count; channel++)
+        {
+            if(reuse[channel] == channel)
+                continue;
+            if(reuse[channel] < 0)
+                outputs[channel].setState(index.stateAt(channel, now));
+            scheduleNextEvent(channel, now);
+        }
+        if(siteChanged)
+            updateSolarEvents();
+        saveBootPlan();
+        resetReconcileInterval();
+        
+        System.out.println("-----------------------------------");
+        record(Telemetry.RELOAD_TIME, -1, (System.nanoTime() - started) / 1000);
+        System.out.println("[CONFIG] RELOADED: " + changed + " CHANGED, " + added + " ADDED, " + removed + " REMOVED");
+        if(siteChanged)
+            System.out.println("  LOCATION = " + latitude + ", " + longitude + " ZENITH = " + site.getZenith());
+        System.out.println("-----------------------------------");
+    }
+    
+    /**
+     * This method enables, re-seeds or disables the randomized vacation mode.  
+     * The schedule is compiled again with the new planner and all channels 
+     * are re-planned; the randomized plans of every channel and night are 
+     * computed up front and their next events are scheduled as one batch.
+     * 
+     * @param planner vacation mode planner or null to disable vacation mode
+     */
+    private synchronized void setVacationMode(VacationPlanner planner)
+    {
+        vacation = planner;
+        schedule = rules.compile(site, vacation);
+        schedule.precompute(EpochDays.ofInstant(clock.currentTimeMillis(), site.getTimeZone()) - 1, HORIZON_DAYS + 2);
+        replanAll();
+        saveBootPlan();
+    }
+    
+    /**
+     * This method discards all pending switch events, rebuilds the switch 
+     * event index from the current time and schedules all channels again.
+     */
+    private synchronized void replanAll()
+    {
+        for(int channel = 0; channel < pendingTasks.length; channel++)
+        {
+            if(pendingTasks[channel] != null)
+                pendingTasks[channel].cancel();
+        }
+        
+        long now = clock.currentTimeMillis();
+        long started = System.nanoTime();
+        index = new SwitchIntervalIndex(schedule, now, HORIZON_DAYS);
+        record(Telemetry.PLAN_TIME, -1, (System.nanoTime() - started) / 1000);
+        scheduleAllChannels(now);
+    }
+    
+    /**
+     * This method determines the next sunrise and sunset events and
+     * caches them for display.
+     * 
+     * Near the poles the sun may not rise (or set) for weeks at a time; in 
+     * that case the next transition is searched for in the following days.
+     */
+    private synchronized void updateSolarEvents()
+    {
+        Date now = new Date(clock.currentTimeMillis());
+        long today = EpochDays.ofInstant(now.getTime(), site.getTimeZone());
+        
+        // find the next sunrise and sunset (skipping any days without them)
+        SolarEvent sunrise = site.findNextSunrise(now, MAX_SEARCH_DAYS);
+        SolarEvent sunset = site.findNextSunset(now, MAX_SEARCH_DAYS);
+
+        // set cache next sunrise and sunset variables
+        nextSunriseDate = (sunrise == null) ? null : sunrise.getDate();
+        nextSunsetDate = (sunset == null) ? null : sunset.getDate();
+        
+        // determine if sunrise or sunset is the next event
+        if(sunrise == null && sunset == null)
+        {
+            SolarEvent condition = site.getSunriseEvent(now);
+            nextEvent = (condition.getType() == SolarEvent.Type.ALWAYS_UP) ? EventType.PolarDay : EventType.PolarNight;
+        }
+        else if(sunset == null || (sunrise != null && sunrise.getTime() < sunset.getTime()))
+        {
+            long days = sunrise.getEpochDay() - today;
+            nextEvent = (days <= 0) ? EventType.SunriseToday : (days == 1) ? EventType.SunriseTomorrow : EventType.SunriseLater;
+        }
+        else
+        {
+            long days = sunset.getEpochDay() - today;
+            nextEvent = (days <= 0) ? EventType.SunsetToday : EventType.SunsetLater;
+        }
+    }
+    
+    /**
+     * This method determines the next planned switch event of a channel 
+     * from the compiled schedule and schedules the timer task for it.
+     * 
+     * @param channel channel index
+     * @param after time after which to look for the next event
+     */
+    private synchronized void scheduleNextEvent(int channel, long after)
+    {
+        SwitchTask task = planNextEvent(channel, after);
+        if(task != null)
+            waiter.schedule(task, task.time);
+    }
+    
+    /**
+     * This method applies the planned state of every channel and schedules 
+     * the next switch event of all channels as one batch.
+     * 
+     * @param now current time
+     */
+    private synchronized void scheduleAllChannels(long now)
+    {
+        SwitchTask[] tasks = new SwitchTask[outputs.length];
+        long[] times = new long[outputs.length];
+        for(int channel = 0; channel < outputs.length; channel++)
+        {
+            outputs[channel].setState(index.stateAt(channel, now));
+            overridden[channel] = false;
+            tasks[channel] = planNextEvent(channel, now);
+            if(tasks[channel] != null)
+                times[channel] = tasks[channel].time;
+        }
+        waiter.scheduleAll(tasks, times);
+        resetReconcileInterval();
+    }
+    
+    /**
+     * Force the power controllers of a group ON or OFF until their next 
+     * planned switch event.
+     * 
+     * @param name group name, channel name or 'all'
+     * @param state true to turn power ON
+     * @return false if there is no such group
+     */
+    public boolean switchGroup(String name, boolean state)
+    {
+        long started = System.nanoTime();
+        synchronized(this)
+        {
+            List<String> channels = rules.getGroup(name);
+            if(channels == null)
+                return false;
+            Map<String, Boolean> states = new LinkedHashMap<String, Boolean>();
+            for(String channel : channels)
+                states.put(channel, state);
+            switchBatch(name.toUpperCase() + " POWER STATE " + (state ? "ON" : "OFF"), states, started);
+            return true;
+        }
+    }
+    
+    /**
+     * Force the power controllers of a scene to the states of the scene 
+     * until their next planned switch event.
+     * 
+     * @param name scene name
+     * @return false if there is no such scene
+     */
+    public boolean applyScene(String name)
+    {
+        long started = System.nanoTime();
+        synchronized(this)
+        {
+            Map<String, Boolean> states = rules.getScene(name);
+            if(states == null)
+                return false;
+            switchBatch("SCENE " + name.toUpperCase(), states, started);
+            return true;
+        }
+    }
+    
+    /**
+     * This method sets the states of several channels as one batch through 
+     * the output backend, marks them overridden and records the switch as a 
+     * single event with the latency from the request to the completed batch.
+     * 
+     * @param label description of the switch
+     * @param states state per channel name
+     * @param started time the switch was requested ({@link System#nanoTime()})
+     */
+    private synchronized void switchBatch(String label, Map<String, Boolean> states, long started)
+    {
+        OutputBackend.Output[] targets = new OutputBackend.Output[states.size()];
+        boolean[] values = new boolean[states.size()];
+        int index = 0;
+        for(Map.Entry<String, Boolean> entry : states.entrySet())
+        {
+            int channel = schedule.indexOf(entry.getKey());
+            targets[index] = outputs[channel];
+            values[index++] = entry.getValue();
+            overridden[channel] = true;
+        }
+        backend.setStates(targets, values);
+        long latency = (System.nanoTime() - started) / 1000;
+        record(Telemetry.GROUP_SWITCH, -1, latency);
+        resetReconcileInterval();
+        
+        System.out.println("---------------------------------");
+        System.out.println("[OVERRIDE] " + label);
+        System.out.println("  " + targets.length + " CHANNELS SWITCHED IN " + latency + " us");
+        System.out.println("---------------------------------");
+    }
+    
+    /**
+     * This method marks the channel(s) driven by the override switch as 
+     * overridden until their next planned switch event; the switch trigger 
+     * toggles the output itself.
+     */
+    private synchronized void overrideToggled()
+    {
+        for(int channel = 0; channel < outputs.length; channel++)
+        {
+            if(outputs[channel] == powerController)
+            {
+                overridden[channel] = true;
+                record(Telemetry.OVERRIDE, channel, ++overrideCount);
+            }
+        }
+        resetReconcileInterval();
+    }
+    
+    /**
+     * This method determines the state a channel should currently be in: the 
+     * state before its next planned switch event, so an event that is just 
+     * due but has not yet run is never reported as drift.
+     * 
+     * @param channel channel index
+     * @param now current time
+     * @return true if the channel should be ON
+     */
+    private boolean plannedState(int channel, long now)
+    {
+        SwitchTask task = pendingTasks[channel];
+        return (task != null) ? !task.state : index.stateAt(channel, now);
+    }
+    
+    /**
+     * This method reads back the output states of all channels in one pass 
+     * and corrects any output that does not match its planned state, unless 
+     * the channel is overridden.  A mismatch is only corrected when it is 
+     * seen on two consecutive checks, so a change just being made by another 
+     * thread (i.e. the override switch trigger) is not undone.
+     * 
+     * The interval between checks doubles while everything matches, up to 
+     * {@link #RECONCILE_MAX_INTERVAL}, and drops back to 
+     * {@link #RECONCILE_MIN_INTERVAL} on any mismatch or state change.
+     */
+    private synchronized void reconcile()
+    {
+        long now = clock.currentTimeMillis();
+        
+        // read back all output states before comparing any of them
+        boolean[] actual = new boolean[outputs.length];
+        for(int channel = 0; channel < outputs.length; channel++)
+            actual[channel] = outputs[channel].isHigh();
+        
+        boolean drift = false;
+        for(int channel = 0; channel < outputs.length; channel++)
+        {
+            boolean planned = plannedState(channel, now);
+            if(overridden[channel] || actual[channel] == planned)
+            {
+                suspected[channel] = false;
+                continue;
+            }
+            
+            // confirm the mismatch on the next check before correcting it
+            drift = true;
+            if(!suspected[channel])
+            {
+                suspected[channel] = true;
+                continue;
+            }
+            suspected[channel] = false;
+            reconcileMismatches++;
+            record(Telemetry.MISMATCH, channel, reconcileMismatches);
+            outputs[channel].setState(planned);
+            
+            System.out.println("-----------------------------------");
+            System.out.println("[RECONCILE] " + schedule.getChannelName(channel) + " WAS " + (actual[channel] ? "ON" : "OFF") 
+                    + "; POWER HAS BEEN TURNED " + (planned ? "ON" : "OFF"));
+            System.out.println("-----------------------------------");
+        }
+        reconcileChecks++;
+        
+        reconcileInterval = drift ? RECONCILE_MIN_INTERVAL : Math.min(reconcileInterval * 2, RECONCILE_MAX_INTERVAL);
+        reconcileTask = new ReconcileTask();
+        waiter.schedule(reconcileTask, now + reconcileInterval);
+    }
+    
+    /**
+     * This method reschedules the next reconciliation at the minimum 
+     * interval; called whenever output states have been changed.
+     */
+    private synchronized void resetReconcileInterval()
+    {
+        if(reconcileTask != null)
+            reconcileTask.cancel();
+        reconcileInterval = RECONCILE_MIN_INTERVAL;
+        reconcileTask = new ReconcileTask();
+        waiter.schedule(reconcileTask, clock.currentTimeMillis() + reconcileInterval);
+    }
+    
+    /**
+     * This method determines the next planned switch event of a channel 
+     * and records it as the pending task of the channel.
+     * 
+     * @param channel channel index
+     * @param after time after which to look for the next event
+     * @return task to schedule or null if there is no event within the horizon
+     */
+    private SwitchTask planNextEvent(int channel, long after)
+    {
+        long time = index.nextTransition(channel, after);
+        if(time == SwitchIntervalIndex.NO_TRANSITION)
+        {
+            // no switch event within the horizon; retried when the horizon advances
+            pendingTasks[channel] = null;
+            return null;
+        }
+        
+        SwitchTask task = new SwitchTask(channel, index.stateAt(channel, time), time);
+        
+        System.out.println("-----------------------------------");
+        System.out.println("[SCHEDULED] NEXT EVENT: " + schedule.getChannelName(channel) + " " + (task.state ? "ON" : "OFF"));
+        System.out.println("  @ " + new Date(time));
+        System.out.println("-----------------------------------");
+
+        // record switch as next event
+        pendingTasks[channel] = task;
+        return task;
+    }
+    
+    /**
+     * This method schedules the next update of the switch event index 
+     * horizon at the start of the next local day.
+     */
+    private void scheduleHorizonUpdate()
+    {
+        TimeZone tz = schedule.getTimeZone();
+        long tomorrow = EpochDays.ofInstant(clock.currentTimeMillis(), tz) + 1;
+        horizonTask = new HorizonTask();
+        waiter.schedule(horizonTask, EpochDays.startOfDay(tomorrow, tz));
+    }
+    
+    /**
+     * This method discards all pending events and plans every channel again
+     * from the current time; used after the wall clock has been stepped.
+     * 
+     * @param offset amount in ms the wall clock was stepped by
+     */
+    private synchronized void replan(long offset)
+    {
+        record(Telemetry.CLOCK_STEP, -1, offset);
+        System.out.println("-----------------------------------");
+        System.out.println("[CLOCK] SYSTEM TIME STEPPED BY " + (offset / 1000) + " SECONDS");
+        System.out.println("  RE-PLANNING ALL CHANNELS @ " + new Date(clock.currentTimeMillis()));
+        System.out.println("-----------------------------------");
+        
+        // the index may have dropped days that are current again; rebuild it
+        horizonTask.cancel();
+        replanAll();
+        updateSolarEvents();
+        scheduleHorizonUpdate();
+        saveBootPlan();
+    }
+    
+    /**
+     * This class is invoked as a callback once a day to advance the 
+     * horizon of the switch event index and to schedule any channel
+     * that had no switch event within the previous horizon.
+     * 
+     * @author Robert Savage
+     */
+    private class HorizonTask extends EventWaiter.Task
     {
         @Override
-        public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent event)
+        public void run()
         {
-            if(event.getState().isHigh())
+            synchronized(SunriseSunsetPowerController.this)
             {
-                System.out.println("---------------------------------");
-                System.out.println("[OVERRIDE] POWER STATE TOGGLED");
-                System.out.println("---------------------------------");
+                long now = clock.currentTimeMillis();
+                index.advanceTo(now);
+                for(int channel = 0; channel < outputs.length; channel++)
+                {
+                    if(pendingTasks[channel] == null)
+                        scheduleNextEvent(channel, now);
+                }
+                scheduleHorizonUpdate();
+                saveBootPlan();
+            }
+        }
+    }
+    
+    /**
+     * This class is invoked as a callback at a planned switch time of a 
+     * channel and it sets the state of the attached power controller to
+     * the Raspberry Pi through the output backend.
+     * 
+     * @author Robert Savage
+     */
+    private class SwitchTask extends EventWaiter.Task
+    {
+        private final int channel;
+        private final boolean state;
+        private final long time;
+        
+        public SwitchTask(int channel, boolean state, long time)
+        {
+            this.channel = channel;
+            this.state = state;
+            this.time = time;
+        }
+        
+        @Override
+        public void run()
+        {
+            synchronized(SunriseSunsetPowerController.this)
+            {
+                // the channel may have been re-planned since this event was scheduled
+                if(isCancelled())
+                    return;
+                
+                // turn power ON or OFF; this ends any override of the channel
+                outputs[channel].setState(state);
+                overridden[channel] = false;
+                
+                System.out.println("-----------------------------------");
+                System.out.println("[SCHEDULE] " + schedule.getChannelName(channel) + " POWER HAS BEEN TURNED " + (state ? "ON" : "OFF"));
+                System.out.println("-----------------------------------");
+                record(state ? Telemetry.SWITCHED_ON : Telemetry.SWITCHED_OFF, channel, clock.currentTimeMillis() - time);
+                if(switchListener != null)
+                    switchListener.switched(channel, state, time);
+                
+                // schedule next event
+                scheduleNextEvent(channel, time);
+                updateSolarEvents();
+                resetReconcileInterval();
+            }
+        }
+    }
+    
+    /**
+     * This class is invoked as a callback to compare the output states 
+     * with the planned states and correct any drift.
+     * 
+     * @author Robert Savage
+     */
+    private class ReconcileTask extends EventWaiter.Task
+    {
+        @Override
+        public void run()
+        {
+            synchronized(SunriseSunsetPowerController.this)
+            {
+                // the reconciliation may have been rescheduled since
+                if(isCancelled())
+                    return;
+                reconcile();
             }
         }
+    }
+    
+    /**
+     * This class is invoked as a callback when the event waiter detects 
+     * that the system wall clock has been stepped.
+     * 
+     * @author Robert Savage
+     */
+    private class ClockStepHandler implements EventWaiter.ClockStepListener
+    {
+        @Override
+        public void clockStepped(long offset)
+        {
+            replan(offset);
+        }
+    }
+    
+    /**
+     * This class is invoked as a callback when the configuration file 
+     * has been changed.
+     * 
+     * @author Robert Savage
+     */
+    private class ConfigReloadHandler implements ConfigWatcher.Listener
+    {
+        @Override
+        public void configChanged(File file)
+        {
+            reloadConfig();
+        }
+    }
+    
+    /**
+     * This listener class is invoked as a callback when a state change
+     * is detected on the override input switch (if implemented; optional)
+     * 
+     * @author Robert Savage
+     */
+    private class OverrideSwitchListener implements OutputBackend.OverrideListener
+    {
+        @Override
+        public void overridePressed()
+        {
+            overrideToggled();
+            System.out.println("---------------------------------");
+            System.out.println("[OVERRIDE] POWER STATE TOGGLED");
+            System.out.println("---------------------------------");
+        }
     }    
 }
 
@@ -0,0 +1,257 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SwitchIntervalIndex.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Arrays;
+
+import com.savagehomeautomation.utility.EpochDays;
+
+/**
+ * This class is a sorted index of the planned on/off transitions of every 
+ * channel of a {@link CompiledSchedule} over a rolling horizon of days.
+ * 
+ * The transitions of a channel are kept in a primitive <code>long[]</code> of 
+ * alternating ON/OFF instants (overlapping or adjacent day plan intervals are 
+ * merged), so the planned state at any time is the parity of a binary search 
+ * and the next transition is the element that follows it.  The index is 
+ * extended one day at a time as the horizon advances, and transitions that 
+ * have fallen behind are dropped in pairs so the parity is preserved.
+ * 
+ * @author Robert Savage
+ */
+public class SwitchIntervalIndex
+{
+    /** value returned when no transition exists within the horizon */
+    public static final long NO_TRANSITION = Long.MIN_VALUE;
+    
+    private static final int INITIAL_CAPACITY = 32;
+    
+    private final CompiledSchedule schedule;
+    private final int horizonDays;
+    private final long[][] transitions;
+    private final int[] sizes;
+    private long lastDay;
+    
+    /**
+     * Build an index for the days surrounding a point in time.
+     * 
+     * @param schedule compiled channel schedule
+     * @param time time from which the index must be valid
+     * @param horizonDays number of days ahead to index
+     */
+    public SwitchIntervalIndex(CompiledSchedule schedule, long time, int horizonDays)
+    {
+        this.schedule = schedule;
+        this.horizonDays = horizonDays;
+        this.transitions = new long[schedule.getChannelCount()][INITIAL_CAPACITY];
+        this.sizes = new int[schedule.getChannelCount()];
+        
+        // start one day early; the previous day's interval may still be active
+        lastDay = EpochDays.ofInstant(time, schedule.getTimeZone()) - 2;
+        advanceTo(time);
+    }
+    
+    /**
+     * Build an index for a changed schedule from a previous index, taking over 
+     * the transitions of unchanged channels and computing only the others.
+     * 
+     * @param schedule compiled channel schedule
+     * @param previous index of the previous schedule
+     * @param reuse per channel of the schedule, the channel of the previous index 
+     *        whose transitions are taken over unchanged, or -1 to compute the channel
+     * @param time time from which the index must be valid
+     */
+    public SwitchIntervalIndex(CompiledSchedule schedule, SwitchIntervalIndex previous, int[] reuse, long time)
+    {
+        this.schedule = schedule;
+        this.horizonDays = previous.horizonDays;
+        this.transitions = new long[schedule.getChannelCount()][];
+        this.sizes = new int[schedule.getChannelCount()];
+        
+        synchronized(previous)
+        {
+            lastDay = previous.lastDay;
+            for(int channel = 0; channel < sizes.length; channel++)
+            {
+                if(reuse[channel] >= 0)
+                {
+                    transitions[channel] = previous.transitions[reuse[channel]].clone();
+                    sizes[channel] = previous.sizes[reuse[channel]];
+                    continue;
+                }
+                
+                // start one day early; the previous day's interval may still be active
+                transitions[channel] = new long[INITIAL_CAPACITY];
+                for(long day = EpochDays.ofInstant(time, schedule.getTimeZone()) - 1; day <= lastDay; day++)
+                    appendDay(channel, day);
+            }
+        }
+        advanceTo(time);
+    }
+    
+    /**
+     * @return number of channels in the index
+     */
+    public int getChannelCount()
+    {
+        return sizes.length;
+    }
+    
+    /**
+     * @return the instant up to which the index answers queries exactly
+     */
+    public synchronized long getHorizon()
+    {
+        return EpochDays.startOfDay(lastDay + 1, schedule.getTimeZone());
+    }
+    
+    /**
+     * @param channel channel index
+     * @return copy of the indexed ON/OFF transitions of a channel
+     */
+    public synchronized long[] getTransitions(int channel)
+    {
+        return Arrays.copyOf(transitions[channel], sizes[channel]);
+    }
+    
+    /**
+     * Advance the rolling horizon: drop transitions in the past and append
+     * day plans until the index covers <code>horizonDays</code> past the time.
+     * 
+     * @param time current time
+     */
+    public synchronized void advanceTo(long time)
+    {
+        long today = EpochDays.ofInstant(time, schedule.getTimeZone());
+        
+        // extend the horizon one day at a time
+        while(lastDay < today + horizonDays)
+            append(++lastDay);
+        
+        // drop complete on/off pairs that ended before the given time
+        for(int channel = 0; channel < sizes.length; channel++)
+        {
+            long[] times = transitions[channel];
+            int drop = 0;
+            while(drop + 1 < sizes[channel] && times[drop + 1] <= time)
+                drop += 2;
+            if(drop > 0)
+            {
+                System.arraycopy(times, drop, times, 0, sizes[channel] - drop);
+                sizes[channel] -= drop;
+            }
+        }
+    }
+    
+    /**
+     * Get the planned state of a channel.
+     * 
+     * @param channel channel index
+     * @param time instant in ms since the epoch
+     * @return true if the channel should be ON at the given time
+     */
+    public synchronized boolean stateAt(int channel, long time)
+    {
+        // the number of transitions at or before the time is odd while ON
+        return (upperBound(channel, time) & 1) == 1;
+    }
+    
+    /**
+     * Get the next planned transition of a channel.
+     * 
+     * @param channel channel index
+     * @param after only transitions after this instant are considered
+     * @return instant of the next transition or {@link #NO_TRANSITION} if there is none within the horizon
+     */
+    public synchronized long nextTransition(int channel, long after)
+    {
+        int index = upperBound(channel, after);
+        return (index < sizes[channel]) ? transitions[channel][index] : NO_TRANSITION;
+    }
+    
+    /**
+     * @return index of the first transition after the time
+     */
+    private int upperBound(int channel, long time)
+    {
+        long[] times = transitions[channel];
+        int index = Arrays.binarySearch(times, 0, sizes[channel], time);
+        if(index < 0)
+            return -index - 1;
+        
+        // skip equal instants (cannot repeat after merging, but be safe)
+        while(index < sizes[channel] && times[index] == time)
+            index++;
+        return index;
+    }
+    
+    private void append(long epochDay)
+    {
+        for(int channel = 0; channel < sizes.length; channel++)
+            appendDay(channel, epochDay);
+    }
+    
+    private void appendDay(int channel, long epochDay)
+    {
+        long[] intervals = schedule.getIntervals(channel, epochDay);
+        for(int index = 0; index < intervals.length; index += 2)
+            appendInterval(channel, intervals[index], intervals[index + 1]);
+    }
+    
+    /**
+     * Add an interval to the sorted transitions of a channel.  Intervals are 
+     * appended day by day, but the interval of one day may start before that 
+     * of the previous day (e.g. 'sunset+6h' followed by an early morning rule), 
+     * so it is inserted at its place and merged with every interval it 
+     * overlaps or touches.
+     */
+    private void appendInterval(int channel, long on, long off)
+    {
+        long[] times = transitions[channel];
+        int size = sizes[channel];
+        
+        // intervals [first, last) overlap or touch the new one; usually none or only the last
+        int first = size;
+        while(first > 0 && times[first - 1] >= on)
+            first -= 2;
+        int last = first;
+        while(last < size && times[last] <= off)
+        {
+            on = Math.min(on, times[last]);
+            off = Math.max(off, times[last + 1]);
+            last += 2;
+        }
+        
+        // replace them by the merged interval
+        int newSize = size + 2 - (last - first);
+        if(newSize > times.length)
+        {
+            times = Arrays.copyOf(times, times.length * 2);
+            transitions[channel] = times;
+        }
+        System.arraycopy(times, last, times, first + 2, size - last);
+        times[first] = on;
+        times[first + 1] = off;
+        sizes[channel] = newSize;
+    }
+}
@@ -0,0 +1,378 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  Telemetry.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * This class buffers telemetry samples of the controller and pushes them 
+ * in compressed batches to a collector over UDP or TCP.
+ * 
+ * Samples are kept in a fixed-size ring of primitive arrays; recording a 
+ * sample never allocates, never waits for I/O and (when the ring is full) 
+ * overwrites the oldest sample, so the scheduler and GPIO threads are never 
+ * held up by telemetry.  A background thread takes a batch from the ring 
+ * every {@link #FLUSH_INTERVAL} (or as soon as a full batch is waiting), 
+ * sends it and only then releases the samples.  While the collector is not 
+ * reachable the samples stay in the ring and the flusher backs off up to 
+ * {@link #MAX_BACKOFF}; only samples overwritten in the meantime are lost, 
+ * and their number is reported with the next batch.
+ * 
+ * A batch is a header (see {@link TelemetryCollector#decode(byte[])}) 
+ * followed by the deflated samples, each as time delta, type, channel and 
+ * value.  Over TCP every batch is preceded by its length.
+ * 
+ * @author Robert Savage
+ */
+public class Telemetry implements Runnable
+{
+    /** sample types */
+    public static final int SWITCHED_ON = 1;      // value: lag in ms behind the planned time
+    public static final int SWITCHED_OFF = 2;     // value: lag in ms behind the planned time
+    public static final int OVERRIDE = 3;         // value: overrides since startup
+    public static final int MISMATCH = 4;         // value: mismatches corrected since startup
+    public static final int PLAN_TIME = 5;        // value: us to build the switch event index
+    public static final int RELOAD_TIME = 6;      // value: us to apply a configuration change
+    public static final int STARTUP_TIME = 7;     // value: ms from JVM start until outputs were asserted
+    public static final int CLOCK_STEP = 8;       // value: ms the wall clock was stepped by
+    public static final int GROUP_SWITCH = 9;     // value: us to switch a group or scene
+    public static final int MAX_TYPE = GROUP_SWITCH;
+    
+    /** batch header magic ("SSPT") and version */
+    public static final int MAGIC = 0x53535054;
+    public static final int VERSION = 1;
+    
+    /** number of samples kept in the ring */
+    public static final int CAPACITY = 4096;
+    
+    /** largest number of samples per batch (fits a UDP datagram) */
+    public static final int BATCH_SIZE = 1024;
+    
+    /** largest encoded batch: the header with the longest unit name and incompressible samples */
+    public static final int MAX_BATCH_BYTES = 27 + 65535 + BATCH_SIZE * 18 + 1024;
+    
+    /** longest time a sample waits before it is sent */
+    public static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    
+    /** longest wait between attempts while the collector is not reachable */
+    public static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(10);
+    
+    private static final int CONNECT_TIMEOUT = (int)TimeUnit.SECONDS.toMillis(5);
+    
+    // ring of samples; sequence numbers increase forever, the index is (sequence % CAPACITY)
+    private final long[] times = new long[CAPACITY];
+    private final byte[] types = new byte[CAPACITY];
+    private final byte[] channels = new byte[CAPACITY];
+    private final long[] values = new long[CAPACITY];
+    private long head;
+    private long tail;
+    private long dropped;       // since startup
+    private long unreported;    // not yet reported in a batch header
+    
+    // samples of the batch being sent; owned by the flusher thread
+    private final long[] batchTimes = new long[BATCH_SIZE];
+    private final byte[] batchTypes = new byte[BATCH_SIZE];
+    private final byte[] batchChannels = new byte[BATCH_SIZE];
+    private final long[] batchValues = new long[BATCH_SIZE];
+    
+    private final URI collector;
+    private final String unit;
+    private final TimeSource clock;
+    private DatagramSocket datagramSocket;
+    private Socket socket;
+    private long sent;
+    private long failures;
+    private boolean stopped;
+    
+    /**
+     * @param collector collector address as <code>udp://host:port</code> or <code>tcp://host:port</code>
+     * @param unit name of this unit as reported to the collector
+     * @param clock source of the sample times
+     */
+    public Telemetry(URI collector, String unit, TimeSource clock)
+    {
+        if(collector.getHost() == null || collector.getPort() < 0 
+                || !("udp".equals(collector.getScheme()) || "tcp".equals(collector.getScheme())))
+            throw new IllegalArgumentException("Expected udp://host:port or tcp://host:port: " + collector);
+        this.collector = collector;
+        this.unit = unit;
+        this.clock = clock;
+    }
+    
+    /**
+     * Start flushing batches on a (daemon) background thread.
+     */
+    public void start()
+    {
+        Thread thread = new Thread(this, "SSPC-Telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Stop flushing; samples not yet sent are discarded.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        notifyAll();
+    }
+    
+    /**
+     * Record a sample.
+     * 
+     * @param type sample type
+     * @param channel channel index (or -1 if not channel related)
+     * @param value sample value
+     */
+    public synchronized void record(int type, int channel, long value)
+    {
+        int index = (int)(head % CAPACITY);
+        times[index] = clock.currentTimeMillis();
+        types[index] = (byte)type;
+        channels[index] = (byte)channel;
+        values[index] = value;
+        head++;
+        
+        // the ring is full; overwrite the oldest sample
+        if(head - tail > CAPACITY)
+        {
+            tail++;
+            dropped++;
+            unreported++;
+        }
+        
+        // wake the flusher as soon as a full batch is waiting
+        if(head - tail == BATCH_SIZE)
+            notifyAll();
+    }
+    
+    /**
+     * @param type sample type
+     * @return display name of the sample type
+     */
+    public static String getTypeName(int type)
+    {
+        switch(type)
+        {
+            case SWITCHED_ON: return "SWITCHED ON";
+            case SWITCHED_OFF: return "SWITCHED OFF";
+            case OVERRIDE: return "OVERRIDE";
+            case MISMATCH: return "MISMATCH";
+            case PLAN_TIME: return "PLAN TIME";
+            case RELOAD_TIME: return "RELOAD TIME";
+            case STARTUP_TIME: return "STARTUP TIME";
+            case CLOCK_STEP: return "CLOCK STEP";
+            case GROUP_SWITCH: return "GROUP SWITCH";
+            default: return "?";
+        }
+    }
+    
+    /**
+     * @return number of batches sent
+     */
+    public synchronized long getSent()
+    {
+        return sent;
+    }
+    
+    /**
+     * @return number of failed attempts to send a batch
+     */
+    public synchronized long getFailures()
+    {
+        return failures;
+    }
+    
+    /**
+     * @return number of samples overwritten before they could be sent, since startup
+     */
+    public synchronized long getDropped()
+    {
+        return dropped;
+    }
+    
+    @Override
+    public void run()
+    {
+        long backoff = FLUSH_INTERVAL;
+        try
+        {
+            for(;;)
+            {
+                long first;
+                int count;
+                long lost;
+                synchronized(this)
+                {
+                    // wait for the interval to pass or a full batch, whichever comes first; 
+                    // after a failure always wait for the full back off
+                    boolean failing = backoff > FLUSH_INTERVAL;
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                    long remaining;
+                    while(!stopped && (failing || head - tail < BATCH_SIZE) && (remaining = deadline - System.nanoTime()) > 0)
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    if(stopped)
+                        break;
+                    if(head == tail)
+                        continue;
+                    
+                    // only copy the samples while holding the lock
+                    first = tail;
+                    count = (int)Math.min(head - tail, BATCH_SIZE);
+                    lost = unreported;
+                    for(int sample = 0; sample < count; sample++)
+                    {
+                        int index = (int)((first + sample) % CAPACITY);
+                        batchTimes[sample] = times[index];
+                        batchTypes[sample] = types[index];
+                        batchChannels[sample] = channels[index];
+                        batchValues[sample] = values[index];
+                    }
+                }
+                
+                // encode and send outside the lock; the samples are released only once sent
+                try
+                {
+                    send(encode(first, count, lost));
+                    synchronized(this)
+                    {
+                        // samples of the batch overwritten while it was sent were not lost after all
+                        long resent = Math.min(tail, first + count) - first;
+                        dropped -= resent;
+                        unreported -= lost + resent;
+                        tail = Math.max(tail, first + count);
+                        sent++;
+                    }
+                    backoff = FLUSH_INTERVAL;
+                }
+                catch(IOException ex)
+                {
+                    synchronized(this)
+                    {
+                        failures++;
+                    }
+                    disconnect();
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            // stopped
+        }
+        disconnect();
+    }
+    
+    /**
+     * Encode the copied batch of samples.
+     */
+    private byte[] encode(long first, int count, long lost)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(unit);
+            out.writeLong(first);
+            out.writeLong(lost);
+            out.writeInt(count);
+            
+            // sample times are written as deltas, which compress well
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            DataOutputStream samples = new DataOutputStream(new DeflaterOutputStream(out, deflater));
+            long previous = 0;
+            for(int sample = 0; sample < count; sample++)
+            {
+                samples.writeLong(batchTimes[sample] - previous);
+                samples.writeByte(batchTypes[sample]);
+                samples.writeByte(batchChannels[sample]);
+                samples.writeLong(batchValues[sample]);
+                previous = batchTimes[sample];
+            }
+            samples.close();
+            deflater.end();
+            return bytes.toByteArray();
+        }
+        catch(IOException ex)
+        {
+            // not thrown by in-memory streams
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private void send(byte[] batch) throws IOException
+    {
+        InetSocketAddress address = new InetSocketAddress(collector.getHost(), collector.getPort());
+        if(address.isUnresolved())
+            throw new UnknownHostException(collector.getHost());
+        if("udp".equals(collector.getScheme()))
+        {
+            if(datagramSocket == null)
+                datagramSocket = new DatagramSocket();
+            datagramSocket.send(new DatagramPacket(batch, batch.length, address));
+            return;
+        }
+        
+        if(socket == null)
+        {
+            socket = new Socket();
+            socket.connect(address, CONNECT_TIMEOUT);
+        }
+        OutputStream out = socket.getOutputStream();
+        new DataOutputStream(out).writeInt(batch.length);
+        out.write(batch);
+        out.flush();
+    }
+    
+    private void disconnect()
+    {
+        if(datagramSocket != null)
+            datagramSocket.close();
+        datagramSocket = null;
+        try
+        {
+            if(socket != null)
+                socket.close();
+        }
+        catch(IOException ex)
+        {
+            // nothing left to release
+        }
+        socket = null;
+    }
+}
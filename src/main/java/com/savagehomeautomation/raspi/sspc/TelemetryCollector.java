@@ -0,0 +1,223 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  TelemetryCollector.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Date;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class is a minimal stand-in for the telemetry aggregator: it receives 
+ * the batches pushed by {@link Telemetry} over UDP or TCP, decodes them and 
+ * prints a summary per batch.  Every TCP connection (one per unit) is served 
+ * on its own thread.
+ * 
+ * Usage: TelemetryCollector [udp://0.0.0.0:5140 | tcp://0.0.0.0:5140]
+ * 
+ * @author Robert Savage
+ */
+public class TelemetryCollector
+{
+    private static final String DEFAULT_ADDRESS = "udp://0.0.0.0:5140";
+    private static final int MAX_DATAGRAM = 65536;
+    
+    /**
+     * This class is a decoded batch of samples.
+     */
+    public static class Batch
+    {
+        public String unit;
+        public long first;
+        public long dropped;
+        public long[] times;
+        public int[] types;
+        public int[] channels;
+        public long[] values;
+    }
+    
+    /**
+     * Decode a batch.
+     * 
+     * @param data encoded batch
+     * @return decoded batch
+     * @throws IOException if the data is not a valid batch
+     */
+    public static Batch decode(byte[] data) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if(in.readInt() != Telemetry.MAGIC || in.readByte() != Telemetry.VERSION)
+            throw new IOException("Not a telemetry batch.");
+        
+        Batch batch = new Batch();
+        batch.unit = in.readUTF();
+        batch.first = in.readLong();
+        batch.dropped = in.readLong();
+        int count = in.readInt();
+        if(count < 0 || count > Telemetry.BATCH_SIZE)
+            throw new IOException("Invalid sample count: " + count);
+        batch.times = new long[count];
+        batch.types = new int[count];
+        batch.channels = new int[count];
+        batch.values = new long[count];
+        
+        DataInputStream samples = new DataInputStream(new InflaterInputStream(in));
+        long time = 0;
+        for(int sample = 0; sample < count; sample++)
+        {
+            time += samples.readLong();
+            batch.times[sample] = time;
+            batch.types[sample] = samples.readByte();
+            batch.channels[sample] = samples.readByte();
+            batch.values[sample] = samples.readLong();
+        }
+        return batch;
+    }
+    
+    /**
+     * Receive and print telemetry batches until terminated.
+     * 
+     * @param args optional listen address
+     */
+    public static void main(String[] args) throws IOException
+    {
+        URI address = URI.create((args.length > 0) ? args[0] : DEFAULT_ADDRESS);
+        InetSocketAddress endpoint = new InetSocketAddress(address.getHost(), address.getPort());
+        System.out.println("[COLLECTOR] LISTENING ON " + address);
+        
+        if("udp".equals(address.getScheme()))
+        {
+            DatagramSocket socket = new DatagramSocket(endpoint);
+            DatagramPacket packet = new DatagramPacket(new byte[MAX_DATAGRAM], MAX_DATAGRAM);
+            for(;;)
+            {
+                socket.receive(packet);
+                byte[] data = new byte[packet.getLength()];
+                System.arraycopy(packet.getData(), packet.getOffset(), data, 0, data.length);
+                print(data);
+            }
+        }
+        
+        ServerSocket server = new ServerSocket();
+        server.bind(endpoint);
+        for(;;)
+        {
+            final Socket socket = server.accept();
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    receive(socket);
+                }
+            }, "SSPC-Collector-" + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    /**
+     * Receive the length prefixed batches of a TCP connection until it is closed.
+     */
+    private static void receive(Socket socket)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for(;;)
+            {
+                int length = in.readInt();
+                if(length < 0 || length > Telemetry.MAX_BATCH_BYTES)
+                    throw new IOException("Invalid batch length: " + length);
+                byte[] data = new byte[length];
+                in.readFully(data);
+                print(data);
+            }
+        }
+        catch(EOFException ex)
+        {
+            // unit disconnected
+        }
+        catch(IOException ex)
+        {
+            System.err.println("[ERROR] Connection failed: " + ex.getMessage());
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch(IOException ex)
+            {
+                // already closed
+            }
+        }
+    }
+    
+    private static synchronized void print(byte[] data)
+    {
+        Batch batch;
+        try
+        {
+            batch = decode(data);
+        }
+        catch(IOException ex)
+        {
+            System.err.println("[ERROR] Invalid batch: " + ex.getMessage());
+            return;
+        }
+        
+        // count, total and maximum value per sample type
+        long[] counts = new long[Telemetry.MAX_TYPE + 1];
+        long[] totals = new long[Telemetry.MAX_TYPE + 1];
+        long[] maximums = new long[Telemetry.MAX_TYPE + 1];
+        for(int sample = 0; sample < batch.types.length; sample++)
+        {
+            int type = (batch.types[sample] > 0 && batch.types[sample] <= Telemetry.MAX_TYPE) ? batch.types[sample] : 0;
+            maximums[type] = (counts[type] == 0) ? batch.values[sample] : Math.max(maximums[type], batch.values[sample]);
+            counts[type]++;
+            totals[type] += batch.values[sample];
+        }
+        
+        System.out.println("-----------------------------------");
+        System.out.println("[BATCH] " + batch.unit + " #" + batch.first + " : " + batch.types.length + " SAMPLES (" 
+                + data.length + " BYTES), " + batch.dropped + " DROPPED");
+        if(batch.times.length > 0)
+            System.out.println("  " + new Date(batch.times[0]) + " - " + new Date(batch.times[batch.times.length - 1]));
+        for(int type = 0; type <= Telemetry.MAX_TYPE; type++)
+        {
+            if(counts[type] > 0)
+                System.out.println(String.format("  %-13s %6d  MEAN %d  MAX %d", Telemetry.getTypeName(type), counts[type], totals[type] / counts[type], maximums[type]));
+        }
+        System.out.println("-----------------------------------");
+    }
+}
@@ -0,0 +1,81 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  TimeSource.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the source of wall-clock and monotonic time used by the 
+ * controller and its {@link EventWaiter}.
+ * 
+ * The {@link #SYSTEM} source reads the system clocks; the tests substitute 
+ * a simulated clock that runs faster than real time so that days of 
+ * schedule transitions can be exercised in seconds (i.e. by a soak test).
+ * 
+ * @author Robert Savage
+ */
+public abstract class TimeSource
+{
+    /** the system wall clock and monotonic clock */
+    public static final TimeSource SYSTEM = new TimeSource()
+    {
+        @Override
+        public long currentTimeMillis()
+        {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+    };
+    
+    /**
+     * @return wall-clock time in ms since the epoch
+     */
+    public abstract long currentTimeMillis();
+    
+    /**
+     * @return monotonic time in ns (only differences are meaningful)
+     */
+    public abstract long nanoTime();
+    
+    /**
+     * @return number of seconds of this source per real second
+     */
+    public long getSpeed()
+    {
+        return 1;
+    }
+    
+    /**
+     * @param millis amount of time of this source
+     * @return amount of real time in ns that has to be waited for it to pass
+     */
+    public long toWaitNanos(long millis)
+    {
+        return TimeUnit.MILLISECONDS.toNanos(millis) / getSpeed();
+    }
+}
@@ -0,0 +1,144 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  VacationPlanner.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import com.savagehomeautomation.utility.EpochDays;
+
+/**
+ * This class turns the planned on/off intervals of a channel into a 
+ * randomized "vacation mode" plan that makes the house look occupied.
+ * 
+ * Every interval is switched ON a random while after its planned start (i.e. 
+ * after sunset), is switched OFF at a random bedtime (if it would otherwise 
+ * last longer) and is interrupted by a few brief random OFF periods, as if 
+ * someone walked from room to room.  The random numbers of a night are drawn 
+ * from a generator seeded with the plan seed, the channel name and the date, 
+ * so the plan of every channel and night is reproducible and independent of 
+ * the order in which the nights are planned.  The planner is applied when 
+ * the {@link CompiledSchedule} computes its day plans, so the jittered plan 
+ * is precomputed and indexed like any other plan.
+ * 
+ * @author Robert Savage
+ */
+public class VacationPlanner
+{
+    /** longest delay of the ON transition after the planned start */
+    public static final long ON_JITTER = TimeUnit.MINUTES.toMillis(20);
+    
+    /** earliest bedtime as time of day */
+    public static final long BEDTIME_START = TimeUnit.HOURS.toMillis(22);
+    
+    /** length of the window after {@link #BEDTIME_START} in which bedtime falls */
+    public static final long BEDTIME_WINDOW = TimeUnit.MINUTES.toMillis(150);
+    
+    /** largest number of brief OFF periods per interval */
+    public static final int MAX_TOGGLES = 3;
+    
+    /** shortest and longest brief OFF period */
+    public static final long TOGGLE_MIN = TimeUnit.MINUTES.toMillis(2);
+    public static final long TOGGLE_MAX = TimeUnit.MINUTES.toMillis(15);
+    
+    private final long seed;
+    
+    /**
+     * @param seed seed of the plan; the same seed always yields the same plan
+     */
+    public VacationPlanner(long seed)
+    {
+        this.seed = seed;
+    }
+    
+    /**
+     * @return seed of the plan
+     */
+    public long getSeed()
+    {
+        return seed;
+    }
+    
+    /**
+     * Randomize the planned intervals of a channel for a local date.
+     * 
+     * @param channel channel name
+     * @param epochDay local date as days since 1970-01-01
+     * @param intervals sorted array of planned [on, off) instant pairs
+     * @param tz time zone of the schedule
+     * @return sorted array of randomized [on, off) instant pairs
+     */
+    public long[] plan(String channel, long epochDay, long[] intervals, TimeZone tz)
+    {
+        if(intervals.length == 0)
+            return intervals;
+        
+        Random random = new Random(mix(seed ^ mix(channel.hashCode() ^ (epochDay << 32))));
+        long[] result = new long[intervals.length * (MAX_TOGGLES + 1)];
+        int size = 0;
+        for(int index = 0; index < intervals.length; index += 2)
+        {
+            long on = intervals[index] + (long)(random.nextDouble() * ON_JITTER);
+            long bedtime = EpochDays.toInstant(epochDay, BEDTIME_START + (long)(random.nextDouble() * BEDTIME_WINDOW), tz);
+            long off = Math.min(intervals[index + 1], bedtime);
+            if(off <= on)
+                continue;
+            
+            // brief OFF periods at random (sorted) times within the interval
+            long[] toggles = new long[random.nextInt(MAX_TOGGLES + 1)];
+            for(int toggle = 0; toggle < toggles.length; toggle++)
+                toggles[toggle] = on + (long)(random.nextDouble() * (off - on));
+            Arrays.sort(toggles);
+            
+            long start = on;
+            for(long toggle : toggles)
+            {
+                if(toggle > start)
+                {
+                    result[size++] = start;
+                    result[size++] = toggle;
+                }
+                start = Math.max(start, toggle + TOGGLE_MIN + (long)(random.nextDouble() * (TOGGLE_MAX - TOGGLE_MIN)));
+            }
+            if(off > start)
+            {
+                result[size++] = start;
+                result[size++] = off;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+    
+    /**
+     * SplitMix64 finalizer; spreads similar inputs (adjacent dates) over 
+     * unrelated seeds.
+     */
+    private static long mix(long value)
+    {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,111 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  AlmanacSolarEngine.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Solar engine implementing the Almanac for Computers (1990) sunrise/sunset approximation.
+ * 
+ * Based on algorithm at http://williams.best.vwh.net/sunrise_sunset_algorithm.htm
+ * 
+ * @author Robert Savage
+ */
+public class AlmanacSolarEngine implements SolarEngine {
+
+    static final private double PiOver180 = Math.PI / 180;
+    static final private double One80OverPi = 180 / Math.PI;
+    
+    @Override
+    public String getName() {
+        return "almanac";
+    }
+    
+    @Override
+    public double getSunriseUtcHours(SiteGeometry site, long epochDay) {
+        return getEventUtcHours(site, EpochDays.dayOfYear(epochDay), true);
+    }
+
+    @Override
+    public double getSunsetUtcHours(SiteGeometry site, long epochDay) {
+        return getEventUtcHours(site, EpochDays.dayOfYear(epochDay), false);
+    }
+    
+    private double getEventUtcHours(SiteGeometry site, int dayOfYear, boolean rise) {
+        // calculate an approximate time from the longitude hour value
+        double longitudeHour = site.getLongitudeHour();
+        double approximateTime = dayOfYear + (((rise ? 6 : 18) - longitudeHour) / 24);
+
+        // calculate the sun's mean anomaly
+        double sunMeanAnomaly = (0.9856 * approximateTime) - 3.289;
+        double sinAnomaly = Math.sin(sunMeanAnomaly * PiOver180);
+        double cosAnomaly = FastTrig.cosFromSin(sinAnomaly, sunMeanAnomaly * PiOver180);
+
+        // calculate the sun's true longitude (using sin(2M) = 2 sin(M) cos(M))
+        double sunTrueLongitude = (sunMeanAnomaly 
+                + (1.916 * sinAnomaly)
+                + (0.020 * 2 * sinAnomaly * cosAnomaly)
+                + 282.634);
+        if (sunTrueLongitude < 0.0) {
+            sunTrueLongitude += 360;
+        }
+        if (sunTrueLongitude > 360) {
+            sunTrueLongitude -= 360;
+        }
+        double sinTrueLongitude = Math.sin(PiOver180 * sunTrueLongitude);
+        double cosTrueLongitude = FastTrig.cosFromSin(sinTrueLongitude, PiOver180 * sunTrueLongitude);
+
+        // calculate the Sun's right ascension; atan2 keeps it in the same quadrant as the sun's true longitude
+        double sunRightAscension = One80OverPi * Math.atan2(0.91764 * sinTrueLongitude, cosTrueLongitude);
+        if (sunRightAscension < 0) {
+            sunRightAscension += 360;
+        }
+
+        // convert right ascension value to hours
+        sunRightAscension = sunRightAscension / 15;
+
+        // calculate the sun's declination
+        double sinDeclination = 0.39782 * sinTrueLongitude;
+        double cosDeclination = Math.sqrt(1 - sinDeclination * sinDeclination);
+
+        // calculate the sun's local hour angle
+        double cosHour = (site.getCosZenith() - (sinDeclination * site.getSinLatitude())) / (cosDeclination * site.getCosLatitude());
+        if (cosHour > 1) {
+            // sun never rises
+            return ALWAYS_DOWN;
+        }
+        if (cosHour < -1) {
+            // sun never sets
+            return ALWAYS_UP;
+        }
+
+        // finish calculating local hour angle and convert to hours
+        double hourAngle = One80OverPi * Math.acos(cosHour);
+        double localHourAngle = (rise ? 360 - hourAngle : hourAngle) / 15;
+
+        // calculate the local mean time of the event
+        double localMeanTime = localHourAngle + sunRightAscension - (0.06571 * approximateTime) - 6.622;
+
+        // adjust back to UTC
+        return localMeanTime - longitudeHour;
+    }
+}
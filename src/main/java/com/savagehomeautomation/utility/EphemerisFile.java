@@ -0,0 +1,311 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  EphemerisFile.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Read-only, memory-mapped access to a precomputed sunrise/sunset ephemeris 
+ * of many sites over a range of days.
+ * 
+ * The file (big endian, written by {@link SunlightReport} in the 
+ * {@link SunlightReport.Format#EPHEMERIS} format) is laid out as:
+ * 
+ * <pre>
+ *   int MAGIC, int VERSION, double zenith, long firstEpochDay, int days, int sites
+ *   sites x days x int packed sunrise/sunset (site major)
+ *   sites x { double latitude, double longitude, short length + UTF-8 name, short length + UTF-8 time zone id }
+ * </pre>
+ * 
+ * Each packed value holds the local minute of day of the sunrise (bits 0-10) 
+ * and sunset (bits 11-21) and a two bit kind for each (bits 22-23 and 24-25: 
+ * 0 = event, 1 = sun stays up, 2 = sun stays down), so the value of a site and 
+ * date is a single absolute read at a computed offset; nothing is deserialized
+ * beyond the site table.  Minutes are local wall clock times; should an event
+ * fall into the hour repeated at the end of daylight saving time, the earlier
+ * instant is returned.  Readers are safe for use by multiple threads.
+ * 
+ * @author Robert Savage
+ */
+public class EphemerisFile {
+
+    static final public int MAGIC = 0x53534546;
+    static final public int VERSION = 1;
+    
+    /** size of the fixed header; the packed values start here */
+    static final public int HEADER_SIZE = 32;
+    
+    static final private int MINUTE_BITS = 11;
+    static final private int MINUTE_MASK = (1 << MINUTE_BITS) - 1;
+    static final private int SUNRISE_KIND_SHIFT = 22;
+    static final private int SUNSET_KIND_SHIFT = 24;
+    static final private int KIND_EVENT = 0;
+    static final private int KIND_ALWAYS_UP = 1;
+    static final private int KIND_ALWAYS_DOWN = 2;
+    static final private Charset UTF8 = Charset.forName("UTF-8");
+    
+    private final MappedByteBuffer data;
+    private final double zenith;
+    private final long firstDay;
+    private final int days;
+    private final String[] names;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final TimeZone[] timeZones;
+    private final Map<String, Integer> siteIndex = new HashMap<String, Integer>();
+    
+    private EphemerisFile(MappedByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not an ephemeris file.");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported ephemeris file version: " + data.getInt(4));
+        }
+        zenith = data.getDouble(8);
+        firstDay = data.getLong(16);
+        days = data.getInt(24);
+        int sites = data.getInt(28);
+        
+        // each site entry holds two doubles and two length prefixed strings
+        long tableOffset = HEADER_SIZE + 4L * sites * days;
+        if (sites < 0 || days < 0 || tableOffset + 20L * sites > data.capacity()) {
+            throw new IOException("Corrupt ephemeris file: " + sites + " sites, " + days + " days.");
+        }
+        
+        // read the site table that follows the packed values
+        names = new String[sites];
+        latitudes = new double[sites];
+        longitudes = new double[sites];
+        timeZones = new TimeZone[sites];
+        ByteBuffer table = data.duplicate();
+        try {
+            table.position((int) tableOffset);
+            for (int site = 0; site < sites; site++) {
+                latitudes[site] = table.getDouble();
+                longitudes[site] = table.getDouble();
+                names[site] = getString(table);
+                timeZones[site] = TimeZone.getTimeZone(getString(table));
+                siteIndex.put(names[site], site);
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("Truncated ephemeris file.");
+        }
+    }
+    
+    /**
+     * Maps an ephemeris file into memory.
+     * 
+     * @param file file written in the {@link SunlightReport.Format#EPHEMERIS} format
+     * @return reader of the file
+     * @throws IOException if the file cannot be read or is not a valid ephemeris file
+     */
+    public static EphemerisFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Ephemeris file too large to map: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return new EphemerisFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Computes and writes an ephemeris file.
+     * 
+     * @param file file to write
+     * @param calculator calculator used for the sunrise and sunset times
+     * @param sites sites to include
+     * @param firstDay first local date as days since 1970-01-01
+     * @param days number of days to include
+     * @param zenith
+     * @throws IOException if writing fails
+     */
+    public static void write(File file, SunriseSunset calculator, List<SunlightReport.Site> sites, long firstDay, int days, double zenith) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            new SunlightReport(calculator, zenith).write(sites, firstDay, days, SunlightReport.Format.EPHEMERIS, raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Packs a sunrise and sunset into a single value.
+     * 
+     * @param sunrise seconds since local midnight, or {@link SunlightReport#ALWAYS_UP}/{@link SunlightReport#ALWAYS_DOWN}
+     * @param sunset seconds since local midnight, or {@link SunlightReport#ALWAYS_UP}/{@link SunlightReport#ALWAYS_DOWN}
+     * @return packed value
+     */
+    public static int pack(int sunrise, int sunset) {
+        return packMinute(sunrise) | (packMinute(sunset) << MINUTE_BITS)
+                | (packKind(sunrise) << SUNRISE_KIND_SHIFT) | (packKind(sunset) << SUNSET_KIND_SHIFT);
+    }
+    
+    /**
+     * @param packed packed value
+     * @return sunrise minute of the local day, or {@link SunlightReport#ALWAYS_UP}/{@link SunlightReport#ALWAYS_DOWN}
+     */
+    public static int sunriseMinute(int packed) {
+        return unpack(packed & MINUTE_MASK, (packed >>> SUNRISE_KIND_SHIFT) & 3);
+    }
+    
+    /**
+     * @param packed packed value
+     * @return sunset minute of the local day, or {@link SunlightReport#ALWAYS_UP}/{@link SunlightReport#ALWAYS_DOWN}
+     */
+    public static int sunsetMinute(int packed) {
+        return unpack((packed >>> MINUTE_BITS) & MINUTE_MASK, (packed >>> SUNSET_KIND_SHIFT) & 3);
+    }
+    
+    private static int packMinute(int seconds) {
+        return (seconds < 0) ? 0 : seconds / 60;
+    }
+    
+    private static int packKind(int seconds) {
+        if (seconds == SunlightReport.ALWAYS_UP) {
+            return KIND_ALWAYS_UP;
+        }
+        return (seconds == SunlightReport.ALWAYS_DOWN) ? KIND_ALWAYS_DOWN : KIND_EVENT;
+    }
+    
+    private static int unpack(int minute, int kind) {
+        if (kind == KIND_ALWAYS_UP) {
+            return SunlightReport.ALWAYS_UP;
+        }
+        return (kind == KIND_ALWAYS_DOWN) ? SunlightReport.ALWAYS_DOWN : minute;
+    }
+    
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+    
+    /**
+     * Gets the packed sunrise/sunset of a site on a local date.
+     * 
+     * @param site site index
+     * @param epochDay local date as days since 1970-01-01
+     * @return packed value; see {@link #sunriseMinute(int)} and {@link #sunsetMinute(int)}
+     * @throws IndexOutOfBoundsException if the site or date is not in the file
+     */
+    public int getPacked(int site, long epochDay) {
+        long day = epochDay - firstDay;
+        if (site < 0 || site >= names.length || day < 0 || day >= days) {
+            throw new IndexOutOfBoundsException("No ephemeris for site " + site + " on day " + epochDay);
+        }
+        return data.getInt((int) (HEADER_SIZE + 4L * ((long) site * days + day)));
+    }
+    
+    /**
+     * Gets the sunrise of a site on a local date.
+     * 
+     * @param site site index
+     * @param epochDay local date as days since 1970-01-01
+     * @return instant of the sunrise (to the minute), or {@link SunriseSunsetIterator#NO_EVENT} if the sun does not rise
+     */
+    public long getSunrise(int site, long epochDay) {
+        return toInstant(site, epochDay, sunriseMinute(getPacked(site, epochDay)));
+    }
+    
+    /**
+     * Gets the sunset of a site on a local date.
+     * 
+     * @param site site index
+     * @param epochDay local date as days since 1970-01-01
+     * @return instant of the sunset (to the minute), or {@link SunriseSunsetIterator#NO_EVENT} if the sun does not set
+     */
+    public long getSunset(int site, long epochDay) {
+        return toInstant(site, epochDay, sunsetMinute(getPacked(site, epochDay)));
+    }
+    
+    private long toInstant(int site, long epochDay, int minute) {
+        if (minute < 0) {
+            return SunriseSunsetIterator.NO_EVENT;
+        }
+        return EpochDays.toInstant(epochDay, minute * 60000L, timeZones[site]);
+    }
+    
+    /**
+     * @param name site name
+     * @return index of the site, or -1 if the file has no site of that name
+     */
+    public int indexOf(String name) {
+        Integer site = siteIndex.get(name);
+        return (site == null) ? -1 : site;
+    }
+    
+    public int getSiteCount() {
+        return names.length;
+    }
+    
+    public String getSiteName(int site) {
+        return names[site];
+    }
+    
+    public double getLatitude(int site) {
+        return latitudes[site];
+    }
+    
+    public double getLongitude(int site) {
+        return longitudes[site];
+    }
+    
+    public TimeZone getTimeZone(int site) {
+        return timeZones[site];
+    }
+    
+    /**
+     * @return first local date in the file as days since 1970-01-01
+     */
+    public long getFirstDay() {
+        return firstDay;
+    }
+    
+    /**
+     * @return number of days per site in the file
+     */
+    public int getDays() {
+        return days;
+    }
+    
+    public double getZenith() {
+        return zenith;
+    }
+}
@@ -0,0 +1,217 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  EpochDays.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.TimeZone;
+
+/**
+ * Calendar arithmetic on "epoch days" (days since 1970-01-01 in the proleptic 
+ * Gregorian calendar).  These helpers let the solar calculations walk through 
+ * dates with plain integer math instead of allocating a Calendar per day.
+ * 
+ * @author Robert Savage
+ */
+public final class EpochDays {
+
+    static final public long MILLIS_PER_DAY = 86400000L;
+    
+    private EpochDays() {
+    }
+    
+    /**
+     * Returns the epoch day for a civil date.
+     * 
+     * @param year full year (e.g. 2012)
+     * @param month month of year, 1 based
+     * @param dayOfMonth day of month, 1 based
+     * @return days since 1970-01-01
+     */
+    public static long fromCivil(int year, int month, int dayOfMonth) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+    
+    /**
+     * Returns the epoch day for the first day of a year.
+     * 
+     * @param year full year
+     * @return days since 1970-01-01
+     */
+    public static long startOfYear(int year) {
+        return fromCivil(year, 1, 1);
+    }
+
+    /**
+     * Returns the epoch day for a year and (1 based) day of year.
+     * 
+     * @param year full year
+     * @param dayOfYear day of year, 1 based
+     * @return days since 1970-01-01
+     */
+    public static long fromDayOfYear(int year, int dayOfYear) {
+        return startOfYear(year) + dayOfYear - 1;
+    }
+    
+    /**
+     * Returns the year containing an epoch day.
+     * 
+     * @param epochDay days since 1970-01-01
+     * @return full year
+     */
+    public static int yearOf(long epochDay) {
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthPrime = (5 * dayOfYear + 2) / 153;
+        long year = yearOfEra + era * 400;
+        return (int) (monthPrime >= 10 ? year + 1 : year);
+    }
+    
+    /**
+     * Returns the (1 based) day of year of an epoch day.
+     * 
+     * @param epochDay days since 1970-01-01
+     * @return day of year, 1 based
+     */
+    public static int dayOfYear(long epochDay) {
+        return (int) (epochDay - startOfYear(yearOf(epochDay))) + 1;
+    }
+    
+    /**
+     * Returns the number of days in a year.
+     * 
+     * @param year full year
+     * @return either 365 or 366
+     */
+    public static int lengthOfYear(int year) {
+        return isLeapYear(year) ? 366 : 365;
+    }
+    
+    /**
+     * Returns true when the year is a Gregorian leap year.
+     * 
+     * @param year full year
+     * @return true for leap years
+     */
+    public static boolean isLeapYear(int year) {
+        return (year % 4 == 0) && ((year % 100 != 0) || (year % 400 == 0));
+    }
+    
+    /**
+     * Returns the (1 based) month of year of an epoch day.
+     * 
+     * @param epochDay days since 1970-01-01
+     * @return month of year, 1 based
+     */
+    public static int monthOf(long epochDay) {
+        int year = yearOf(epochDay);
+        int dayOfYear = (int) (epochDay - startOfYear(year));
+        int leap = isLeapYear(year) ? 1 : 0;
+        if (dayOfYear < 31) {
+            return 1;
+        }
+        if (dayOfYear < 59 + leap) {
+            return 2;
+        }
+        // days are counted from March 1st so the month lengths follow a fixed 153 day pattern
+        int dayOfMarchYear = dayOfYear - (59 + leap);
+        return ((5 * dayOfMarchYear + 2) / 153) + 3;
+    }
+    
+    /**
+     * Returns the (1 based) day of month of an epoch day.
+     * 
+     * @param epochDay days since 1970-01-01
+     * @return day of month, 1 based
+     */
+    public static int dayOfMonth(long epochDay) {
+        int year = yearOf(epochDay);
+        return (int) (epochDay - fromCivil(year, monthOf(epochDay), 1)) + 1;
+    }
+    
+    /**
+     * Returns the day of week for an epoch day using the java.util.Calendar 
+     * numbering (Calendar.SUNDAY == 1 ... Calendar.SATURDAY == 7).
+     * 
+     * @param epochDay days since 1970-01-01
+     * @return day of week, 1 based starting at Sunday
+     */
+    public static int dayOfWeek(long epochDay) {
+        // 1970-01-01 was a Thursday (Calendar.THURSDAY == 5)
+        int index = (int) ((epochDay + 4) % 7);
+        if (index < 0) {
+            index += 7;
+        }
+        return index + 1;
+    }
+    
+    /**
+     * Returns the local calendar date (as an epoch day) of an instant in the given time zone.
+     * 
+     * @param millis instant in milliseconds since the epoch
+     * @param tz time zone of the local calendar
+     * @return days since 1970-01-01 of the local date
+     */
+    public static long ofInstant(long millis, TimeZone tz) {
+        return floorDiv(millis + tz.getOffset(millis), MILLIS_PER_DAY);
+    }
+    
+    /**
+     * Returns the instant of a local wall clock time on the given day in the given time zone.
+     * 
+     * @param epochDay local date
+     * @param millisOfDay local wall clock time as ms since midnight
+     * @param tz time zone of the local calendar
+     * @return instant in milliseconds since the epoch
+     */
+    public static long toInstant(long epochDay, long millisOfDay, TimeZone tz) {
+        long local = epochDay * MILLIS_PER_DAY + millisOfDay;
+        long guess = local - tz.getOffset(local);
+        return local - tz.getOffset(guess);
+    }
+    
+    /**
+     * Returns the instant of local midnight starting the given day in the given time zone.
+     * 
+     * @param epochDay local date
+     * @param tz time zone of the local calendar
+     * @return instant in milliseconds since the epoch
+     */
+    public static long startOfDay(long epochDay, TimeZone tz) {
+        return toInstant(epochDay, 0, tz);
+    }
+    
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
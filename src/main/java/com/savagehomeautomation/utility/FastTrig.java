@@ -0,0 +1,59 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  FastTrig.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Trigonometric shortcuts for the solar engines.
+ * 
+ * The engines need both the sine and the cosine of several angles.  Given the
+ * sine, the cosine only costs a square root and a quadrant test, which is a 
+ * fraction of the cost of a second {@link Math#cos(double)} call.  The result 
+ * loses some relative precision where the cosine approaches zero (absolute 
+ * error below 2e-8), which is far below the accuracy of either engine.
+ * 
+ * @author Robert Savage
+ */
+final class FastTrig {
+
+    static final private double TWO_PI = 2 * Math.PI;
+    
+    private FastTrig() {
+    }
+    
+    /**
+     * Returns the cosine of an angle whose sine is already known.
+     * 
+     * @param sin sine of the angle
+     * @param radians the angle
+     * @return cosine of the angle
+     */
+    static double cosFromSin(double sin, double radians) {
+        double cos = Math.sqrt(Math.max(0, 1 - sin * sin));
+        
+        // the cosine is negative in the second and third quadrant
+        double turns = radians / TWO_PI;
+        double fraction = turns - Math.floor(turns);
+        return (fraction > 0.25 && fraction < 0.75) ? -cos : cos;
+    }
+}
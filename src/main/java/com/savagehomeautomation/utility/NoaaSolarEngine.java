@@ -0,0 +1,144 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  NoaaSolarEngine.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Solar engine implementing the NOAA solar calculator algorithm.
+ * 
+ * The sun's apparent position is computed from Meeus' low precision solar 
+ * coordinates (Julian century based mean longitude, anomaly, equation of 
+ * center, nutation and obliquity correction) and the event time is refined by 
+ * re-evaluating the sun's position at the previous estimate of the event.
+ * Two passes are accurate to within a few seconds of the fully converged solution.
+ * 
+ * @see http://www.esrl.noaa.gov/gmd/grad/solcalc/calcdetails.html
+ * @author Robert Savage
+ */
+public class NoaaSolarEngine implements SolarEngine {
+
+    /** number of refinement passes used by default */
+    static final public int DEFAULT_PASSES = 2;
+    
+    static final private double PiOver180 = Math.PI / 180;
+    static final private double One80OverPi = 180 / Math.PI;
+    static final private double JULIAN_DAY_EPOCH = 2440587.5;   // Julian day of 1970-01-01 00:00 UTC
+    static final private double JULIAN_DAY_J2000 = 2451545.0;
+    
+    private final int passes;
+    
+    /**
+     * Creates an engine using the default number of refinement passes.
+     */
+    public NoaaSolarEngine() {
+        this(DEFAULT_PASSES);
+    }
+
+    /**
+     * Creates an engine using a specific number of refinement passes.
+     * 
+     * @param passes number of times the event time is refined (at least 1)
+     */
+    public NoaaSolarEngine(int passes) {
+        if (passes < 1) {
+            throw new IllegalArgumentException("passes must be at least 1");
+        }
+        this.passes = passes;
+    }
+    
+    @Override
+    public String getName() {
+        return (passes == DEFAULT_PASSES) ? "noaa" : "noaa-x" + passes;
+    }
+
+    @Override
+    public double getSunriseUtcHours(SiteGeometry site, long epochDay) {
+        return getEventUtcHours(site, epochDay, true);
+    }
+
+    @Override
+    public double getSunsetUtcHours(SiteGeometry site, long epochDay) {
+        return getEventUtcHours(site, epochDay, false);
+    }
+    
+    private double getEventUtcHours(SiteGeometry site, long epochDay, boolean rise) {
+        double julianDay = epochDay + JULIAN_DAY_EPOCH;
+        double longitude = site.getLongitude();
+        
+        // start from the approximate solar noon and refine at the event time
+        double utcMinutes = 720 - (4 * longitude);
+        for (int pass = 0; pass < passes; pass++) {
+            double t = (julianDay + (utcMinutes / 1440) - JULIAN_DAY_J2000) / 36525;
+            
+            // multiple angles are derived from sin/cos pairs rather than evaluated separately
+            double meanLongitude = PiOver180 * (280.46646 + t * (36000.76983 + t * 0.0003032));
+            double meanAnomaly = PiOver180 * (357.52911 + t * (35999.05029 - 0.0001537 * t));
+            double eccentricity = 0.016708634 - t * (0.000042037 + 0.0000001267 * t);
+            double sinAnomaly = Math.sin(meanAnomaly);
+            double cosAnomaly = FastTrig.cosFromSin(sinAnomaly, meanAnomaly);
+            double sin2Anomaly = 2 * sinAnomaly * cosAnomaly;
+            double sin3Anomaly = sinAnomaly * (3 - 4 * sinAnomaly * sinAnomaly);
+            double equationOfCenter = sinAnomaly * (1.914602 - t * (0.004817 + 0.000014 * t))
+                    + sin2Anomaly * (0.019993 - 0.000101 * t)
+                    + sin3Anomaly * 0.000289;
+            
+            // apparent longitude and corrected obliquity of the ecliptic
+            double omega = PiOver180 * (125.04 - 1934.136 * t);
+            double sinOmega = Math.sin(omega);
+            double cosOmega = FastTrig.cosFromSin(sinOmega, omega);
+            double apparentLongitude = PiOver180 * ((One80OverPi * meanLongitude) + equationOfCenter - 0.00569 - 0.00478 * sinOmega);
+            double meanObliquity = 23 + (26 + ((21.448 - t * (46.815 + t * (0.00059 - t * 0.001813)))) / 60) / 60;
+            double obliquity = PiOver180 * (meanObliquity + 0.00256 * cosOmega);
+            double sinObliquity = Math.sin(obliquity);
+            double cosObliquity = Math.sqrt(1 - sinObliquity * sinObliquity);
+            
+            // declination and equation of time (minutes); tan^2(e/2) = (1 - cos(e)) / (1 + cos(e))
+            double sinDeclination = sinObliquity * Math.sin(apparentLongitude);
+            double cosDeclination = Math.sqrt(1 - sinDeclination * sinDeclination);
+            double y = (1 - cosObliquity) / (1 + cosObliquity);
+            double sin2Longitude = Math.sin(2 * meanLongitude);
+            double cos2Longitude = FastTrig.cosFromSin(sin2Longitude, 2 * meanLongitude);
+            double sin4Longitude = 2 * sin2Longitude * cos2Longitude;
+            double equationOfTime = 4 * One80OverPi * (y * sin2Longitude
+                    - 2 * eccentricity * sinAnomaly
+                    + 4 * eccentricity * y * sinAnomaly * cos2Longitude
+                    - 0.5 * y * y * sin4Longitude
+                    - 1.25 * eccentricity * eccentricity * sin2Anomaly);
+            
+            // hour angle of the event
+            double cosHour = (site.getCosZenith() - sinDeclination * site.getSinLatitude()) / (cosDeclination * site.getCosLatitude());
+            if (cosHour > 1) {
+                // sun never rises
+                return ALWAYS_DOWN;
+            }
+            if (cosHour < -1) {
+                // sun never sets
+                return ALWAYS_UP;
+            }
+            double hourAngle = One80OverPi * Math.acos(cosHour);
+            
+            utcMinutes = 720 - (4 * (longitude + (rise ? hourAngle : -hourAngle))) - equationOfTime;
+        }
+        return utcMinutes / 60;
+    }
+}
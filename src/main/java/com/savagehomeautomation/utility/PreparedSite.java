@@ -0,0 +1,290 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  PreparedSite.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * A sunrise/sunset calculator bound to a single location, zenith and time zone.
+ * 
+ * The location dependent terms ({@link SiteGeometry}) are computed once when 
+ * the site is prepared, so repeated queries for the same site only pay for the 
+ * per-day part of the calculation.  Instances are immutable and may be shared 
+ * freely between threads.
+ * 
+ * @see SunriseSunset#prepare(double, double, double, TimeZone)
+ * @author Robert Savage
+ */
+public final class PreparedSite {
+
+    private final SolarEngine engine;
+    private final SiteGeometry geometry;
+    private final double zenith;
+    private final TimeZone tz;
+    
+    /**
+     * @param engine algorithm used to compute the sunrise and sunset times
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param zenith
+     * @param tz time zone of the location; must not be modified afterwards
+     */
+    public PreparedSite(SolarEngine engine, double latitude, double longitude, double zenith, TimeZone tz) {
+        this.engine = engine;
+        this.geometry = new SiteGeometry(latitude, longitude, zenith);
+        this.zenith = zenith;
+        this.tz = tz;
+    }
+    
+    /**
+     * Gets the sunrise for a local date as a typed event
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     * @return either a SUNRISE event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunriseEvent(long epochDay) {
+        return toEvent(SolarEvent.Type.SUNRISE, epochDay, engine.getSunriseUtcHours(geometry, epochDay));
+    }
+    
+    /**
+     * Gets the sunset for a local date as a typed event
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     * @return either a SUNSET event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunsetEvent(long epochDay) {
+        return toEvent(SolarEvent.Type.SUNSET, epochDay, engine.getSunsetUtcHours(geometry, epochDay));
+    }
+    
+    /**
+     * @param date date of sun calculation
+     * @return sunrise event of the local date containing <code>date</code>
+     */
+    public SolarEvent getSunriseEvent(Date date) {
+        return getSunriseEvent(EpochDays.ofInstant(date.getTime(), tz));
+    }
+    
+    /**
+     * @param date date of sun calculation
+     * @return sunset event of the local date containing <code>date</code>
+     */
+    public SolarEvent getSunsetEvent(Date date) {
+        return getSunsetEvent(EpochDays.ofInstant(date.getTime(), tz));
+    }
+    
+    /**
+     * @param date date of sun calculation
+     * @return date of the sunrise.  If the sun does not rise, returns null
+     */
+    public Date getSunrise(Date date) {
+        return getSunriseEvent(date).getDate();
+    }
+    
+    /**
+     * @param date date of sun calculation
+     * @return date of the sunset.  If the sun does not set, returns null
+     */
+    public Date getSunset(Date date) {
+        return getSunsetEvent(date).getDate();
+    }
+    
+    /**
+     * Returns the amount of sunlight on a local date
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     * @return amount of sunlight in ms, between 0 and the length of the day
+     * @see #getSunlight(SolarEvent, SolarEvent, TimeZone)
+     */
+    public long getSunlight(long epochDay) {
+        return getSunlight(getSunriseEvent(epochDay), getSunsetEvent(epochDay), tz);
+    }
+    
+    /**
+     * Returns the amount of sunlight on a local date from its sunrise and sunset events.
+     * 
+     * A sunset after midnight is reported on the date it falls on, before that date's 
+     * sunrise; it then counts as the end of the date's daylight (the day length is added).  
+     * The result is limited to the length of the local day, which is 23 or 25 hours on 
+     * daylight saving time changes.
+     * 
+     * @param sunrise sunrise event of the date
+     * @param sunset sunset event of the same date
+     * @param tz time zone of the local date
+     * @return amount of sunlight in ms, between 0 and the length of the day
+     */
+    public static long getSunlight(SolarEvent sunrise, SolarEvent sunset, TimeZone tz) {
+        long epochDay = sunrise.getEpochDay();
+        long length = EpochDays.startOfDay(epochDay + 1, tz) - EpochDays.startOfDay(epochDay, tz);
+        
+        long sunlight = 0;
+        if (sunrise.getType() == SolarEvent.Type.ALWAYS_DOWN) {
+            // return 0
+        } else if (sunrise.getType() == SolarEvent.Type.ALWAYS_UP || sunset.getType() == SolarEvent.Type.ALWAYS_UP) {
+            sunlight = length;
+        } else if (sunset.getType() == SolarEvent.Type.ALWAYS_DOWN) {
+            // return 0
+        } else {
+            sunlight = sunset.getTime() - sunrise.getTime();
+            if (sunlight < 0) {
+                // the sunset fell after midnight and is reported before the sunrise
+                sunlight += length;
+            }
+        }
+        return Math.max(0, Math.min(sunlight, length));
+    }
+    
+    /**
+     * @param date date of sun calculation
+     * @return amount of sunlight in ms on the local date containing <code>date</code>
+     */
+    public long getSunlight(Date date) {
+        return getSunlight(EpochDays.ofInstant(date.getTime(), tz));
+    }
+    
+    /**
+     * Finds the first sunrise or sunset occurring after a point in time.
+     * 
+     * @see #findNextEvent(Date, boolean, boolean, int)
+     */
+    public SolarEvent findNextTransition(Date from, int maxDays) {
+        return findNextEvent(from, true, true, maxDays);
+    }
+    
+    /**
+     * Finds the first sunrise occurring after a point in time.
+     * 
+     * @see #findNextEvent(Date, boolean, boolean, int)
+     */
+    public SolarEvent findNextSunrise(Date from, int maxDays) {
+        return findNextEvent(from, true, false, maxDays);
+    }
+    
+    /**
+     * Finds the first sunset occurring after a point in time.
+     * 
+     * @see #findNextEvent(Date, boolean, boolean, int)
+     */
+    public SolarEvent findNextSunset(Date from, int maxDays) {
+        return findNextEvent(from, false, true, maxDays);
+    }
+    
+    /**
+     * Finds the first sunrise and/or sunset occurring after a point in time.
+     * 
+     * Days on which the sun does not cross the horizon (polar day or night) are skipped with the
+     * incremental {@link SunriseSunsetIterator}, which costs a few multiply-adds per day, and only 
+     * the day(s) around the next transition are evaluated with this site's engine.
+     * 
+     * @param from events at or before this time are ignored
+     * @param sunrise true to look for sunrise events
+     * @param sunset true to look for sunset events
+     * @param maxDays maximum number of days to look ahead
+     * @return the next event, or null if none occurs within <code>maxDays</code>
+     */
+    public SolarEvent findNextEvent(Date from, boolean sunrise, boolean sunset, int maxDays) {
+        long after = from.getTime();
+        long firstDay = EpochDays.ofInstant(after, tz);
+        long lastDay = firstDay + maxDays;
+        long day = firstDay;
+        SunriseSunsetIterator iterator = null;
+        while (day <= lastDay) {
+            SolarEvent rise = sunrise ? getSunriseEvent(day) : null;
+            SolarEvent set = sunset ? getSunsetEvent(day) : null;
+            boolean riseFound = rise != null && rise.isTransition() && rise.getTime() > after;
+            boolean setFound = set != null && set.isTransition() && set.getTime() > after;
+            if (riseFound && setFound) {
+                return (rise.getTime() <= set.getTime()) ? rise : set;
+            } else if (riseFound) {
+                return rise;
+            } else if (setFound) {
+                return set;
+            }
+            
+            if ((rise != null && rise.isTransition()) || (set != null && set.isTransition())) {
+                // ordinary day; the next event is at most a day away
+                day++;
+                continue;
+            }
+            
+            // polar day or night; skip ahead to the day before the next approximate transition 
+            if (iterator == null) {
+                iterator = iterate(new Date(after));
+            }
+            iterator.moveTo(day + 1);
+            while (iterator.getEpochDay() <= lastDay 
+                    && !(sunrise && iterator.getSunrise() != SunriseSunsetIterator.NO_EVENT)
+                    && !(sunset && iterator.getSunset() != SunriseSunsetIterator.NO_EVENT)) {
+                iterator.next();
+            }
+            day = Math.max(day + 1, iterator.getEpochDay() - 1);
+        }
+        return null;
+    }
+    
+    /**
+     * Creates an iterator that walks the sunrise and sunset events of this site one day at a time
+     * starting with the local date containing <code>date</code>.  The iterator always uses the 
+     * Almanac for Computers algorithm, regardless of this site's engine.
+     * 
+     * @param date first date of the iteration
+     * @return day by day event iterator
+     */
+    public SunriseSunsetIterator iterate(Date date) {
+        return new SunriseSunsetIterator(geometry, date, tz);
+    }
+    
+    private SolarEvent toEvent(SolarEvent.Type type, long epochDay, double utcTime) {
+        if (utcTime == SolarEngine.ALWAYS_UP) {
+            return new SolarEvent(SolarEvent.Type.ALWAYS_UP, epochDay, 0);
+        }
+        if (utcTime == SolarEngine.ALWAYS_DOWN) {
+            return new SolarEvent(SolarEvent.Type.ALWAYS_DOWN, epochDay, 0);
+        }
+        return new SolarEvent(type, epochDay, SunriseSunset.toInstant(epochDay, utcTime, tz));
+    }
+    
+    public SolarEngine getEngine() {
+        return engine;
+    }
+    
+    public SiteGeometry getGeometry() {
+        return geometry;
+    }
+    
+    public double getLatitude() {
+        return geometry.getLatitude();
+    }
+    
+    public double getLongitude() {
+        return geometry.getLongitude();
+    }
+    
+    public double getZenith() {
+        return zenith;
+    }
+    
+    public TimeZone getTimeZone() {
+        return tz;
+    }
+}
@@ -0,0 +1,92 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SiteGeometry.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * The location dependent terms of the sunrise/sunset calculation (sine and 
+ * cosine of the latitude, the longitude in hours and the cosine of the zenith) 
+ * computed once per site instead of on every call.
+ * 
+ * Instances are immutable and thread safe.
+ * 
+ * @author Robert Savage
+ */
+public final class SiteGeometry {
+
+    static final private double PiOver180 = Math.PI / 180;
+    
+    private final double latitude;
+    private final double longitude;
+    private final double sinLatitude;
+    private final double cosLatitude;
+    private final double longitudeHour;
+    private final double zenith;
+    private final double cosZenith;
+    
+    /**
+     * @param latitude location latitude in degrees (north positive)
+     * @param longitude location longitude in degrees (east positive)
+     * @param zenith zenith of the sunrise/sunset events in degrees
+     */
+    public SiteGeometry(double latitude, double longitude, double zenith) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.sinLatitude = Math.sin(PiOver180 * latitude);
+        this.cosLatitude = Math.cos(PiOver180 * latitude);
+        this.longitudeHour = longitude / 15;
+        this.zenith = zenith;
+        this.cosZenith = Math.cos(PiOver180 * zenith);
+    }
+    
+    public double getLatitude() {
+        return latitude;
+    }
+    
+    public double getLongitude() {
+        return longitude;
+    }
+    
+    public double getSinLatitude() {
+        return sinLatitude;
+    }
+    
+    public double getCosLatitude() {
+        return cosLatitude;
+    }
+    
+    /**
+     * @return longitude converted to hours (15 degrees per hour)
+     */
+    public double getLongitudeHour() {
+        return longitudeHour;
+    }
+    
+    public double getZenith() {
+        return zenith;
+    }
+    
+    public double getCosZenith() {
+        return cosZenith;
+    }
+}
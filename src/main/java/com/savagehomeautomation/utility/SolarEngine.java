@@ -0,0 +1,68 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SolarEngine.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * A solar position algorithm able to compute the time of sunrise and sunset 
+ * for a location and date.
+ * 
+ * Engines differ in their accuracy/throughput trade-off; see {@link SolarEngineType}
+ * for the available implementations and {@link SolarEngineBenchmark} for how they 
+ * measure up against each other.  Implementations must be stateless and thread safe.
+ * 
+ * @author Robert Savage
+ */
+public interface SolarEngine {
+
+    /** result returned when the sun stays above the horizon for the whole day */
+    double ALWAYS_UP = Double.POSITIVE_INFINITY;
+    
+    /** result returned when the sun stays below the horizon for the whole day */
+    double ALWAYS_DOWN = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @return short name of this engine
+     */
+    String getName();
+    
+    /**
+     * Computes the sunrise for a date at a particular location.
+     * 
+     * @param site location and zenith of sun calculation
+     * @param epochDay local date as days since 1970-01-01
+     * @return UTC time of day in hours of the rise.  If the sun does not cross the horizon, 
+     *         returns either {@link #ALWAYS_UP} or {@link #ALWAYS_DOWN}
+     */
+    double getSunriseUtcHours(SiteGeometry site, long epochDay);
+
+    /**
+     * Computes the sunset for a date at a particular location.
+     * 
+     * @param site location and zenith of sun calculation
+     * @param epochDay local date as days since 1970-01-01
+     * @return UTC time of day in hours of the set.  If the sun does not cross the horizon, 
+     *         returns either {@link #ALWAYS_UP} or {@link #ALWAYS_DOWN}
+     */
+    double getSunsetUtcHours(SiteGeometry site, long epochDay);
+}
@@ -0,0 +1,257 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SolarEngineBenchmark.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the accuracy/throughput trade-off of the available solar engines.
+ * 
+ * Accuracy is measured against a reference dataset; either a CSV file given on 
+ * the command line with lines of the form:
+ * 
+ * <pre>
+ *   latitude,longitude,epochDay,sunriseUtcHours,sunsetUtcHours
+ * </pre>
+ * 
+ * (empty hour fields denote days without the event) or, by default, the 
+ * {@link #REFERENCE_RESOURCE} dataset bundled with this class.  That dataset is 
+ * computed with an independent algorithm (see the comments in the file) for a 
+ * handful of sites in 2012 and 2024; published tables (e.g. USNO rise/set tables) 
+ * in the same format can be given instead.  Throughput is measured by timing 
+ * repeated passes over the same dataset after a warm up.
+ * 
+ * The self-convergence of the NOAA engine (its default passes against the fully 
+ * refined solution on random sites and dates) is reported on a separate line; 
+ * it says nothing about the accuracy of the algorithm itself.
+ * 
+ * Usage: SolarEngineBenchmark [reference.csv]
+ * 
+ * @author Robert Savage
+ */
+public class SolarEngineBenchmark {
+
+    static final private int GENERATED_SITES = 200;
+    static final private int GENERATED_DAYS = 50;
+    static final private int WARMUP_ROUNDS = 5;
+    static final private int MEASURED_ROUNDS = 10;
+    static final private int CONVERGED_PASSES = 8;
+    
+    /** default reference dataset, relative to this class */
+    static final public String REFERENCE_RESOURCE = "solar-reference.csv";
+    
+    private final SiteGeometry[] sites;
+    private final long[] epochDays;
+    private final double[] sunrises;
+    private final double[] sunsets;
+    
+    // sum of every computed event time; printed so the JIT cannot eliminate the measured work
+    private double checksum;
+    
+    private SolarEngineBenchmark(List<double[]> rows) {
+        int size = rows.size();
+        sites = new SiteGeometry[size];
+        epochDays = new long[size];
+        sunrises = new double[size];
+        sunsets = new double[size];
+        for (int i = 0; i < size; i++) {
+            double[] row = rows.get(i);
+            sites[i] = new SiteGeometry(row[0], row[1], SunriseSunset.OFFICIAL_ZENITH);
+            epochDays[i] = (long) row[2];
+            sunrises[i] = row[3];
+            sunsets[i] = row[4];
+        }
+    }
+    
+    /**
+     * Loads a reference dataset from a CSV file, or the bundled reference dataset if 
+     * no file name is given.
+     */
+    static SolarEngineBenchmark load(String fileName) throws IOException {
+        InputStream in = (fileName == null) 
+                ? SolarEngineBenchmark.class.getResourceAsStream(REFERENCE_RESOURCE) 
+                : new FileInputStream(fileName);
+        if (in == null) {
+            throw new IOException("Missing reference dataset: " + REFERENCE_RESOURCE);
+        }
+        List<double[]> rows = new ArrayList<double[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                rows.add(new double[] {
+                        Double.parseDouble(fields[0]),
+                        Double.parseDouble(fields[1]),
+                        Double.parseDouble(fields[2]),
+                        parseHours(fields[3]),
+                        parseHours(fields[4]) });
+            }
+        } finally {
+            reader.close();
+        }
+        return new SolarEngineBenchmark(rows);
+    }
+    
+    /**
+     * Generates a dataset of random sites (up to 72 degrees latitude) and dates from 
+     * the fully converged NOAA algorithm.  Only suitable for measuring how closely the 
+     * default passes converge, not for measuring accuracy.
+     */
+    static SolarEngineBenchmark generateConverged(long seed) {
+        SolarEngine reference = new NoaaSolarEngine(CONVERGED_PASSES);
+        Random random = new Random(seed);
+        long firstDay = EpochDays.fromCivil(2000, 1, 1);
+        List<double[]> rows = new ArrayList<double[]>();
+        for (int site = 0; site < GENERATED_SITES; site++) {
+            double latitude = (random.nextDouble() * 144) - 72;
+            double longitude = (random.nextDouble() * 360) - 180;
+            SiteGeometry geometry = new SiteGeometry(latitude, longitude, SunriseSunset.OFFICIAL_ZENITH);
+            for (int day = 0; day < GENERATED_DAYS; day++) {
+                long epochDay = firstDay + random.nextInt(365 * 40);
+                rows.add(new double[] {
+                        latitude, 
+                        longitude, 
+                        epochDay,
+                        reference.getSunriseUtcHours(geometry, epochDay),
+                        reference.getSunsetUtcHours(geometry, epochDay) });
+            }
+        }
+        return new SolarEngineBenchmark(rows);
+    }
+    
+    private static double parseHours(String field) {
+        field = field.trim();
+        return (field.length() == 0) ? Double.NaN : Double.parseDouble(field);
+    }
+    
+    /**
+     * Computes the accuracy of an engine.
+     * 
+     * @return { mean abs error (s), 99th percentile abs error (s), max abs error (s), missed events }
+     */
+    double[] accuracy(SolarEngine engine) {
+        double[] errors = new double[sites.length * 2];
+        int count = 0;
+        int missed = 0;
+        for (int i = 0; i < sites.length; i++) {
+            double rise = engine.getSunriseUtcHours(sites[i], epochDays[i]);
+            double set = engine.getSunsetUtcHours(sites[i], epochDays[i]);
+            if (isEvent(rise) != isEvent(sunrises[i])) {
+                missed++;
+            } else if (isEvent(rise)) {
+                errors[count++] = errorSeconds(rise, sunrises[i]);
+            }
+            if (isEvent(set) != isEvent(sunsets[i])) {
+                missed++;
+            } else if (isEvent(set)) {
+                errors[count++] = errorSeconds(set, sunsets[i]);
+            }
+        }
+        Arrays.sort(errors, 0, count);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += errors[i];
+        }
+        return new double[] { 
+                (count == 0) ? 0 : sum / count,
+                (count == 0) ? 0 : errors[Math.min(count - 1, (int) (count * 0.99))],
+                (count == 0) ? 0 : errors[count - 1],
+                missed };
+    }
+    
+    /**
+     * Measures the throughput of an engine.
+     * 
+     * @return average nanoseconds per sunrise/sunset pair
+     */
+    double throughput(SolarEngine engine) {
+        double sink = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += run(engine);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            sink += run(engine);
+        }
+        long elapsed = System.nanoTime() - start;
+        checksum += sink;
+        return (double) elapsed / ((long) MEASURED_ROUNDS * sites.length);
+    }
+    
+    private double run(SolarEngine engine) {
+        double sink = 0;
+        for (int i = 0; i < sites.length; i++) {
+            sink += engine.getSunriseUtcHours(sites[i], epochDays[i]);
+            sink += engine.getSunsetUtcHours(sites[i], epochDays[i]);
+        }
+        return sink;
+    }
+    
+    private static boolean isEvent(double hours) {
+        return !Double.isNaN(hours) && !Double.isInfinite(hours);
+    }
+    
+    private static double errorSeconds(double hours, double referenceHours) {
+        double diff = Math.abs(hours - referenceHours) % 24;
+        return Math.min(diff, 24 - diff) * 3600;
+    }
+    
+    /**
+     * Runs the benchmark and prints a comparison table.
+     * 
+     * @param args optional reference dataset file name
+     */
+    static public void main(String[] args) throws IOException {
+        SolarEngineBenchmark benchmark = load((args.length > 0) ? args[0] : null);
+        
+        System.out.println("Reference        : " + ((args.length > 0) ? args[0] : REFERENCE_RESOURCE));
+        System.out.println("Reference events : " + (benchmark.sites.length * 2));
+        System.out.println("engine\t\tns/pair\tmean(s)\tp99(s)\tmax(s)\tmissed");
+        for (SolarEngineType type : SolarEngineType.values()) {
+            SolarEngine engine = type.getEngine();
+            double[] accuracy = benchmark.accuracy(engine);
+            double nanos = benchmark.throughput(engine);
+            System.out.println(String.format("%-8s\t%.0f\t%.1f\t%.1f\t%.1f\t%.0f", 
+                    engine.getName(), nanos, accuracy[0], accuracy[1], accuracy[2], accuracy[3]));
+        }
+        
+        // not an accuracy figure; the reference is the same algorithm
+        double[] convergence = generateConverged(2012).accuracy(SolarEngineType.NOAA.getEngine());
+        System.out.println(String.format("NOAA convergence vs %d passes (not accuracy): mean %.1f s, p99 %.1f s, max %.1f s", 
+                CONVERGED_PASSES, convergence[0], convergence[1], convergence[2]));
+        System.out.println(String.format("Checksum         : %.3f", benchmark.checksum));
+    }
+}
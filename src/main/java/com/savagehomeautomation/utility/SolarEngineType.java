@@ -0,0 +1,67 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SolarEngineType.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * This enumeration defines the available solar engines.
+ * 
+ * <ul>
+ * <li>ALMANAC - the Almanac for Computers approximation; fast, but can be off 
+ *               by a minute or more at high latitudes.  Best suited for bulk 
+ *               (fleet) planning.</li>
+ * <li>NOAA    - the NOAA solar calculator algorithm (Meeus based) refined at the 
+ *               event time; several times slower, but accurate to a few seconds.
+ *               Best suited for single site control.</li>
+ * </ul>
+ * 
+ * @author Robert Savage
+ */
+public enum SolarEngineType {
+    ALMANAC(new AlmanacSolarEngine()),
+    NOAA(new NoaaSolarEngine());
+    
+    private final SolarEngine engine;
+    
+    private SolarEngineType(SolarEngine engine) {
+        this.engine = engine;
+    }
+    
+    /**
+     * @return shared (stateless) engine instance
+     */
+    public SolarEngine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Looks up an engine type by (case insensitive) name.
+     * 
+     * @param name engine name, e.g. "almanac" or "noaa"
+     * @return engine type
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static SolarEngineType fromName(String name) {
+        return SolarEngineType.valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,105 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SolarEvent.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Date;
+
+/**
+ * Typed result of a sunrise or sunset calculation.  
+ * 
+ * Near the poles the sun may stay above (or below) the horizon for the whole 
+ * day, in which case there is no sunrise/sunset time and the event instead 
+ * reports which of the two polar conditions applies.
+ * 
+ * @author Robert Savage
+ */
+public final class SolarEvent {
+
+    /**
+     * The type of solar event.
+     */
+    public enum Type {
+        /** the sun rises at {@link SolarEvent#getTime()} */
+        SUNRISE,
+        /** the sun sets at {@link SolarEvent#getTime()} */
+        SUNSET,
+        /** the sun does not cross the horizon; it stays up (midnight sun) */
+        ALWAYS_UP,
+        /** the sun does not cross the horizon; it stays down (polar night) */
+        ALWAYS_DOWN
+    }
+    
+    private final Type type;
+    private final long epochDay;
+    private final long time;
+    
+    SolarEvent(Type type, long epochDay, long time) {
+        this.type = type;
+        this.epochDay = epochDay;
+        this.time = time;
+    }
+    
+    /**
+     * @return type of the event
+     */
+    public Type getType() {
+        return type;
+    }
+    
+    /**
+     * @return local date of the event as days since 1970-01-01
+     */
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * @return true if this event is an actual sunrise or sunset (as opposed to a polar condition)
+     */
+    public boolean isTransition() {
+        return type == Type.SUNRISE || type == Type.SUNSET;
+    }
+    
+    /**
+     * @return time of the transition in ms since the epoch
+     * @throws IllegalStateException if this event is not a transition
+     */
+    public long getTime() {
+        if (!isTransition()) {
+            throw new IllegalStateException("no transition on a " + type + " day");
+        }
+        return time;
+    }
+    
+    /**
+     * @return time of the transition, or null if this event is not a transition
+     */
+    public Date getDate() {
+        return isTransition() ? new Date(time) : null;
+    }
+    
+    @Override
+    public String toString() {
+        return isTransition() ? type + " @ " + new Date(time) : type.toString();
+    }
+}
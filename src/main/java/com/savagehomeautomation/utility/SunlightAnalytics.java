@@ -0,0 +1,203 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SunlightAnalytics.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Answers sunlight duration queries (total daylight or darkness between two local 
+ * dates, per month, ...) for a single site in constant time.
+ * 
+ * The first query touching a year computes the daylight of every day of that year 
+ * in one pass over the prepared site and stores running totals of the daylight and 
+ * darkness (the rest of the local day, so the 23 and 25 hour days of daylight saving 
+ * changes are accounted for) in two <code>long[]</code> prefix sum arrays.  A range 
+ * total is then the difference of two array elements per year spanned.  The arrays 
+ * of the most recently used years are cached.  Instances are thread safe.
+ * 
+ * @see SunriseSunset#analyze(double, double, double, TimeZone)
+ * @author Robert Savage
+ */
+public class SunlightAnalytics {
+
+    /** number of years whose prefix sums are kept */
+    static final public int CACHED_YEARS = 4;
+    
+    static final private double MILLIS_PER_HOUR = 3600000.0;
+    
+    private final PreparedSite site;
+    private final Map<Integer, Year> years = new LinkedHashMap<Integer, Year>(CACHED_YEARS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Year> eldest) {
+            return size() > CACHED_YEARS;
+        }
+    };
+    
+    /**
+     * @param site prepared site; its zenith, engine and time zone define the sunlight
+     */
+    public SunlightAnalytics(PreparedSite site) {
+        this.site = site;
+    }
+    
+    public PreparedSite getSite() {
+        return site;
+    }
+    
+    /**
+     * Returns the amount of sunlight on a local date.  Same as {@link PreparedSite#getSunlight(long)}.
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     * @return amount of sunlight in ms
+     */
+    public long getDaylight(long epochDay) {
+        return getDaylight(epochDay, epochDay + 1);
+    }
+    
+    /**
+     * Returns the total sunlight over a range of local dates.
+     * 
+     * @param fromDay first local date (inclusive) as days since 1970-01-01
+     * @param toDay last local date (exclusive) as days since 1970-01-01
+     * @return amount of sunlight in ms; 0 if the range is empty
+     */
+    public long getDaylight(long fromDay, long toDay) {
+        return sum(fromDay, toDay, true);
+    }
+    
+    /**
+     * Returns the total darkness (the time between sunset and sunrise) over a range 
+     * of local dates.
+     * 
+     * @param fromDay first local date (inclusive) as days since 1970-01-01
+     * @param toDay last local date (exclusive) as days since 1970-01-01
+     * @return amount of darkness in ms; 0 if the range is empty
+     */
+    public long getDarkness(long fromDay, long toDay) {
+        return sum(fromDay, toDay, false);
+    }
+    
+    /**
+     * @param year full year
+     * @param month month of year, 1 based
+     * @return amount of sunlight in ms over the month
+     */
+    public long getDaylightForMonth(int year, int month) {
+        return getDaylight(firstDayOfMonth(year, month), firstDayOfMonth(year, month + 1));
+    }
+    
+    /**
+     * @param year full year
+     * @param month month of year, 1 based
+     * @return amount of darkness in ms over the month
+     */
+    public long getDarknessForMonth(int year, int month) {
+        return getDarkness(firstDayOfMonth(year, month), firstDayOfMonth(year, month + 1));
+    }
+    
+    /**
+     * Returns the number of hours of darkness over a month, e.g. the hours that dusk 
+     * to dawn lighting is on.
+     * 
+     * @param year full year
+     * @param month month of year, 1 based
+     * @return hours of darkness over the month
+     */
+    public double getDarknessHoursForMonth(int year, int month) {
+        return getDarknessForMonth(year, month) / MILLIS_PER_HOUR;
+    }
+    
+    /**
+     * Returns the number of hours of darkness over a range of local dates.
+     * 
+     * @param fromDay first local date (inclusive) as days since 1970-01-01
+     * @param toDay last local date (exclusive) as days since 1970-01-01
+     * @return hours of darkness over the range
+     */
+    public double getDarknessHours(long fromDay, long toDay) {
+        return getDarkness(fromDay, toDay) / MILLIS_PER_HOUR;
+    }
+    
+    private long sum(long fromDay, long toDay, boolean daylight) {
+        long total = 0;
+        long day = fromDay;
+        while (day < toDay) {
+            // one lookup per calendar year spanned
+            int year = EpochDays.yearOf(day);
+            Year sums = getYear(year);
+            long end = Math.min(toDay, sums.firstDay + sums.daylight.length - 1);
+            total += sums.sum(day, end, daylight);
+            day = end;
+        }
+        return total;
+    }
+    
+    private synchronized Year getYear(int year) {
+        Year sums = years.get(year);
+        if (sums == null) {
+            sums = new Year(site, year);
+            years.put(year, sums);
+        }
+        return sums;
+    }
+    
+    private static long firstDayOfMonth(int year, int month) {
+        return (month > 12) ? EpochDays.startOfYear(year + 1) : EpochDays.fromCivil(year, month, 1);
+    }
+    
+    /**
+     * Prefix sums of one calendar year; element <code>i</code> is the total of the 
+     * first <code>i</code> days of the year.
+     */
+    private static final class Year {
+        private final long firstDay;
+        private final long[] daylight;
+        private final long[] darkness;
+        
+        Year(PreparedSite site, int year) {
+            TimeZone tz = site.getTimeZone();
+            int days = EpochDays.lengthOfYear(year);
+            firstDay = EpochDays.startOfYear(year);
+            daylight = new long[days + 1];
+            darkness = new long[days + 1];
+            
+            long start = EpochDays.startOfDay(firstDay, tz);
+            for (int day = 0; day < days; day++) {
+                long end = EpochDays.startOfDay(firstDay + day + 1, tz);
+                long sunlight = site.getSunlight(firstDay + day);
+                daylight[day + 1] = daylight[day] + sunlight;
+                darkness[day + 1] = darkness[day] + (end - start - sunlight);
+                start = end;
+            }
+        }
+        
+        long sum(long fromDay, long toDay, boolean sunlight) {
+            long[] sums = sunlight ? daylight : darkness;
+            return sums[(int) (toDay - firstDay)] - sums[(int) (fromDay - firstDay)];
+        }
+    }
+}
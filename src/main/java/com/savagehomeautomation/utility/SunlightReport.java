@@ -0,0 +1,549 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SunlightReport.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Streams sunrise, sunset and daylight for any number of sites and days to a 
+ * channel, either as CSV or as a compact binary columnar format.
+ * 
+ * CSV rows have the form:
+ * 
+ * <pre>
+ *   site,date,sunrise,sunset,daylight
+ *   Boulder,2011-03-20,06:07:41,18:15:26,12:07:45
+ * </pre>
+ * 
+ * Times are local wall clock times of the site; the sunrise or sunset field is 
+ * empty when the sun does not cross the horizon that day (daylight is then 
+ * either 24:00:00 or 00:00:00).
+ * 
+ * The binary format (big endian) is a header, a site table and then, per site, 
+ * three columns of <code>days</code> int values each: sunrise and sunset as 
+ * seconds since local midnight ({@link #ALWAYS_UP}/{@link #ALWAYS_DOWN} on polar
+ * days) followed by daylight seconds:
+ * 
+ * <pre>
+ *   int MAGIC, int VERSION, double zenith, long firstEpochDay, int days, int sites
+ *   sites x { short length + UTF-8 name, double latitude, double longitude, short length + UTF-8 time zone id }
+ *   sites x { int[days] sunrise, int[days] sunset, int[days] daylight }
+ * </pre>
+ * 
+ * The ephemeris format is a memory-mappable file of packed sunrise/sunset 
+ * minutes for random access by site and date; see {@link EphemerisFile}.
+ * 
+ * All values are formatted directly into a single reused buffer that is 
+ * written to the channel whenever it fills up, and the date column is 
+ * formatted once per day for all sites, so no objects are created per cell.
+ * Instances are not thread safe.
+ * 
+ * Usage: SunlightReport [-engine=almanac|noaa] [-zenith=official|civil|nautical|astronomical|degrees]
+ *                       [-from=yyyy-mm-dd] [-days=n] [-format=csv|binary|ephemeris] [-out=file] 
+ *                       [-sites=file] [name,latitude,longitude[,timezone] ...]
+ * 
+ * @author Robert Savage
+ */
+public class SunlightReport {
+
+    static final public int MAGIC = 0x53534C52;
+    static final public int VERSION = 1;
+    
+    /** binary sunrise/sunset value of a day on which the sun does not set */
+    static final public int ALWAYS_UP = -1;
+    
+    /** binary sunrise/sunset value of a day on which the sun does not rise */
+    static final public int ALWAYS_DOWN = -2;
+    
+    static final private int BUFFER_SIZE = 64 * 1024;
+    static final private Charset UTF8 = Charset.forName("UTF-8");
+    static final private byte[] CSV_HEADER = "site,date,sunrise,sunset,daylight\n".getBytes(UTF8);
+    
+    /**
+     * Output format of a report.
+     */
+    public enum Format {
+        CSV, BINARY, EPHEMERIS;
+        
+        /**
+         * @param name case insensitive format name
+         * @return the matching format
+         */
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name.trim())) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown report format: " + name);
+        }
+    }
+    
+    /**
+     * A named location with its time zone.
+     */
+    public static final class Site {
+        
+        /** longest site name in UTF-8 bytes */
+        static final public int MAX_NAME_BYTES = 1024;
+        
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final TimeZone timeZone;
+        
+        /**
+         * @throws IllegalArgumentException if the name is longer than {@link #MAX_NAME_BYTES}
+         */
+        public Site(String name, double latitude, double longitude, TimeZone timeZone) {
+            if (name.getBytes(UTF8).length > MAX_NAME_BYTES) {
+                throw new IllegalArgumentException("Site name longer than " + MAX_NAME_BYTES + " bytes: " + name.substring(0, 32) + "...");
+            }
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.timeZone = timeZone;
+        }
+        
+        /**
+         * Parses a site of the form <code>name,latitude,longitude[,timezone]</code>;
+         * the default time zone is used when none is given.
+         * 
+         * @param text site definition
+         * @return the site
+         */
+        public static Site parse(String text) {
+            String[] fields = text.split(",");
+            if (fields.length < 3 || fields.length > 4) {
+                throw new IllegalArgumentException("Invalid site (expected name,latitude,longitude[,timezone]): " + text);
+            }
+            TimeZone tz = TimeZone.getDefault();
+            if (fields.length == 4) {
+                tz = TimeZone.getTimeZone(fields[3].trim());
+                if (!tz.getID().equals(fields[3].trim())) {
+                    throw new IllegalArgumentException("Unknown time zone: " + fields[3].trim());
+                }
+            }
+            try {
+                return new Site(fields[0].trim(), Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()), tz);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid site coordinates: " + text);
+            }
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public double getLatitude() {
+            return latitude;
+        }
+        
+        public double getLongitude() {
+            return longitude;
+        }
+        
+        public TimeZone getTimeZone() {
+            return timeZone;
+        }
+    }
+    
+    private final SunriseSunset calculator;
+    private final double zenith;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private WritableByteChannel channel;
+    
+    // per day columns of the current site
+    private int[] sunrise = new int[0];
+    private int[] sunset = new int[0];
+    private int[] daylight = new int[0];
+    
+    /**
+     * @param calculator calculator used for the sunrise and sunset times
+     * @param zenith
+     */
+    public SunlightReport(SunriseSunset calculator, double zenith) {
+        this.calculator = calculator;
+        this.zenith = zenith;
+    }
+    
+    /**
+     * Writes a report for a range of local dates of every site.
+     * 
+     * @param sites sites to report on
+     * @param firstDay first local date as days since 1970-01-01
+     * @param days number of days to report
+     * @param format output format
+     * @param out channel to write to; it is not closed
+     * @return number of site days written
+     * @throws IOException if writing to the channel fails
+     */
+    public long write(List<Site> sites, long firstDay, int days, Format format, WritableByteChannel out) throws IOException {
+        channel = out;
+        buffer.clear();
+        if (sunrise.length < days) {
+            sunrise = new int[days];
+            sunset = new int[days];
+            daylight = new int[days];
+        }
+        
+        try {
+            if (format == Format.CSV) {
+                writeCsv(sites, firstDay, days);
+            } else if (format == Format.BINARY) {
+                writeBinary(sites, firstDay, days);
+            } else {
+                writeEphemeris(sites, firstDay, days);
+            }
+            flush();
+        } finally {
+            channel = null;
+        }
+        return (long) sites.size() * days;
+    }
+    
+    private void writeCsv(List<Site> sites, long firstDay, int days) throws IOException {
+        // the date column is the same for every site; format it once
+        byte[][] dates = new byte[days][];
+        int year = EpochDays.yearOf(firstDay);
+        int month = EpochDays.monthOf(firstDay);
+        int dayOfMonth = EpochDays.dayOfMonth(firstDay);
+        for (int day = 0; day < days; day++) {
+            dates[day] = formatDate(year, month, dayOfMonth);
+            if (dayOfMonth < lengthOfMonth(year, month)) {
+                dayOfMonth++;
+            } else if (month < 12) {
+                month++;
+                dayOfMonth = 1;
+            } else {
+                year++;
+                month = 1;
+                dayOfMonth = 1;
+            }
+        }
+        
+        put(CSV_HEADER);
+        for (Site site : sites) {
+            byte[] name = csvField(site.getName()).getBytes(UTF8);
+            compute(site, firstDay, days);
+            for (int day = 0; day < days; day++) {
+                ensure(name.length + 40);
+                buffer.put(name);
+                buffer.put((byte) ',');
+                buffer.put(dates[day]);
+                buffer.put((byte) ',');
+                putTime(sunrise[day]);
+                buffer.put((byte) ',');
+                putTime(sunset[day]);
+                buffer.put((byte) ',');
+                putTime(daylight[day]);
+                buffer.put((byte) '\n');
+            }
+        }
+    }
+    
+    private void writeBinary(List<Site> sites, long firstDay, int days) throws IOException {
+        ensure(32);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putDouble(zenith);
+        buffer.putLong(firstDay);
+        buffer.putInt(days);
+        buffer.putInt(sites.size());
+        for (Site site : sites) {
+            putString(site.getName());
+            ensure(16);
+            buffer.putDouble(site.getLatitude());
+            buffer.putDouble(site.getLongitude());
+            putString(site.getTimeZone().getID());
+        }
+        
+        for (Site site : sites) {
+            compute(site, firstDay, days);
+            putColumn(sunrise, days);
+            putColumn(sunset, days);
+            putColumn(daylight, days);
+        }
+    }
+    
+    private void writeEphemeris(List<Site> sites, long firstDay, int days) throws IOException {
+        ensure(EphemerisFile.HEADER_SIZE);
+        buffer.putInt(EphemerisFile.MAGIC);
+        buffer.putInt(EphemerisFile.VERSION);
+        buffer.putDouble(zenith);
+        buffer.putLong(firstDay);
+        buffer.putInt(days);
+        buffer.putInt(sites.size());
+        for (Site site : sites) {
+            compute(site, firstDay, days);
+            for (int day = 0; day < days; day++) {
+                ensure(4);
+                buffer.putInt(EphemerisFile.pack(sunrise[day], sunset[day]));
+            }
+        }
+        
+        // the site table follows the fixed size values
+        for (Site site : sites) {
+            ensure(16);
+            buffer.putDouble(site.getLatitude());
+            buffer.putDouble(site.getLongitude());
+            putString(site.getName());
+            putString(site.getTimeZone().getID());
+        }
+    }
+    
+    private void compute(Site site, long firstDay, int days) {
+        TimeZone tz = site.getTimeZone();
+        PreparedSite prepared = calculator.prepare(site.getLatitude(), site.getLongitude(), zenith, tz);
+        for (int day = 0; day < days; day++) {
+            long epochDay = firstDay + day;
+            SolarEvent rise = prepared.getSunriseEvent(epochDay);
+            SolarEvent set = prepared.getSunsetEvent(epochDay);
+            sunrise[day] = secondOfDay(rise, tz);
+            sunset[day] = secondOfDay(set, tz);
+            
+            daylight[day] = (int) (PreparedSite.getSunlight(rise, set, tz) / 1000);
+        }
+    }
+    
+    private static int secondOfDay(SolarEvent event, TimeZone tz) {
+        if (event.getType() == SolarEvent.Type.ALWAYS_UP) {
+            return ALWAYS_UP;
+        }
+        if (event.getType() == SolarEvent.Type.ALWAYS_DOWN) {
+            return ALWAYS_DOWN;
+        }
+        // events always fall on their local date, so this is within [0, 86400)
+        long time = event.getTime();
+        long local = time + tz.getOffset(time) - event.getEpochDay() * EpochDays.MILLIS_PER_DAY;
+        return (int) (local / 1000);
+    }
+    
+    private void putTime(int seconds) {
+        if (seconds < 0) {
+            return;
+        }
+        putTwoDigits(seconds / 3600);
+        buffer.put((byte) ':');
+        putTwoDigits((seconds / 60) % 60);
+        buffer.put((byte) ':');
+        putTwoDigits(seconds % 60);
+    }
+    
+    private void putTwoDigits(int value) {
+        buffer.put((byte) ('0' + value / 10));
+        buffer.put((byte) ('0' + value % 10));
+    }
+    
+    private void putColumn(int[] values, int count) throws IOException {
+        for (int index = 0; index < count; index++) {
+            ensure(4);
+            buffer.putInt(values[index]);
+        }
+    }
+    
+    private void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String longer than 65535 bytes");
+        }
+        ensure(2);
+        buffer.putShort((short) bytes.length);
+        put(bytes);
+    }
+    
+    private void put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+    
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+    
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+    private static byte[] formatDate(int year, int month, int dayOfMonth) {
+        byte[] date = new byte[10];
+        date[0] = (byte) ('0' + (year / 1000) % 10);
+        date[1] = (byte) ('0' + (year / 100) % 10);
+        date[2] = (byte) ('0' + (year / 10) % 10);
+        date[3] = (byte) ('0' + year % 10);
+        date[4] = '-';
+        date[5] = (byte) ('0' + month / 10);
+        date[6] = (byte) ('0' + month % 10);
+        date[7] = '-';
+        date[8] = (byte) ('0' + dayOfMonth / 10);
+        date[9] = (byte) ('0' + dayOfMonth % 10);
+        return date;
+    }
+    
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            return EpochDays.isLeapYear(year) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+    
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    private static long parseDate(String text) {
+        String[] fields = text.trim().split("-");
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("Invalid date (expected yyyy-mm-dd): " + text);
+        }
+        try {
+            return EpochDays.fromCivil(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid date (expected yyyy-mm-dd): " + text);
+        }
+    }
+    
+    private static double parseZenith(String text) {
+        if (text.equalsIgnoreCase("official")) {
+            return SunriseSunset.OFFICIAL_ZENITH;
+        } else if (text.equalsIgnoreCase("civil")) {
+            return SunriseSunset.CIVIL_ZENITH;
+        } else if (text.equalsIgnoreCase("nautical")) {
+            return SunriseSunset.NAUTICAL_ZENITH;
+        } else if (text.equalsIgnoreCase("astronomical")) {
+            return SunriseSunset.ASTRONOMICAL_ZENITH;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid zenith: " + text);
+        }
+    }
+    
+    private static void loadSites(String fileName, List<Site> sites) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    sites.add(Site.parse(line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Writes a sunlight report; by default a CSV report for Boulder, CO for the current year 
+     * to standard output.
+     * 
+     * @param args see class description
+     */
+    static public void main(String[] args) throws IOException {
+        SolarEngineType engineType = SolarEngineType.ALMANAC;
+        double zenith = SunriseSunset.OFFICIAL_ZENITH;
+        int year = EpochDays.yearOf(EpochDays.ofInstant(System.currentTimeMillis(), TimeZone.getDefault()));
+        long firstDay = EpochDays.startOfYear(year);
+        int days = EpochDays.lengthOfYear(year);
+        Format format = Format.CSV;
+        String outFile = null;
+        List<Site> sites = new ArrayList<Site>();
+        
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("-engine=")) {
+                    engineType = SolarEngineType.fromName(arg.substring(8));
+                } else if (arg.startsWith("-zenith=")) {
+                    zenith = parseZenith(arg.substring(8));
+                } else if (arg.startsWith("-from=")) {
+                    firstDay = parseDate(arg.substring(6));
+                } else if (arg.startsWith("-days=")) {
+                    days = Integer.parseInt(arg.substring(6));
+                } else if (arg.startsWith("-format=")) {
+                    format = Format.fromName(arg.substring(8));
+                } else if (arg.startsWith("-out=")) {
+                    outFile = arg.substring(5);
+                } else if (arg.startsWith("-sites=")) {
+                    loadSites(arg.substring(7), sites);
+                } else {
+                    sites.add(Site.parse(arg));
+                }
+            }
+            if (days <= 0) {
+                throw new IllegalArgumentException("Invalid number of days: " + days);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println("[ERROR] " + ex.getMessage());
+            System.err.println("Usage: SunlightReport [-engine=almanac|noaa] [-zenith=official|civil|nautical|astronomical|degrees]");
+            System.err.println("                      [-from=yyyy-mm-dd] [-days=n] [-format=csv|binary|ephemeris] [-out=file]");
+            System.err.println("                      [-sites=file] [name,latitude,longitude[,timezone] ...]");
+            System.exit(1);
+        }
+        if (sites.isEmpty()) {
+            sites.add(new Site("Boulder", 40.058094, -105.195154, TimeZone.getTimeZone("America/Denver")));
+        }
+        
+        SunlightReport report = new SunlightReport(new SunriseSunset(engineType.getEngine()), zenith);
+        long start = System.nanoTime();
+        long rows;
+        if (outFile == null) {
+            rows = report.write(sites, firstDay, days, format, Channels.newChannel(System.out));
+            System.out.flush();
+        } else {
+            FileOutputStream out = new FileOutputStream(outFile);
+            try {
+                rows = report.write(sites, firstDay, days, format, out.getChannel());
+            } finally {
+                out.close();
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        System.err.println("[REPORT] " + rows + " site days (" + sites.size() + " sites) in " + elapsed + " ms");
+    }
+}
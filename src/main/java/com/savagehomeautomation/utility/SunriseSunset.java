@@ -1,8 +1,6 @@
 package com.savagehomeautomation.utility;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -12,6 +10,10 @@ import java.util.TimeZone;
  * 
  * Based on algorithm at http://williams.best.vwh.net/sunrise_sunset_algorithm.htm
  * 
+ * Instances hold no mutable state and are safe to share between threads.  For repeated 
+ * queries of the same location use {@link #prepare(double, double, double, TimeZone)}, which 
+ * computes the location dependent terms only once.
+ * 
  * @see http://www.codeagnostic.com/featured/calculate-sunrisesunset-java/
  * @author dspiess
  *
@@ -23,8 +25,57 @@ public class SunriseSunset {
     static final public double NAUTICAL_ZENITH = 102;
     static final public double ASTRONOMICAL_ZENITH = 108;
     
-    private List<Double> southernSunlightForYear = null;
-    private List<Double> northernSunlightForYear = null;
+    private final SolarEngine engine;
+    
+    /**
+     * Creates a calculator using the Almanac for Computers algorithm.
+     */
+    public SunriseSunset() {
+        this(SolarEngineType.ALMANAC.getEngine());
+    }
+    
+    /**
+     * Creates a calculator using a specific solar engine.
+     * 
+     * @param engine algorithm used to compute the sunrise and sunset times
+     */
+    public SunriseSunset(SolarEngine engine) {
+        this.engine = engine;
+    }
+    
+    /**
+     * @return algorithm used to compute the sunrise and sunset times
+     */
+    public SolarEngine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Creates a calculator bound to a particular location, zenith and time zone.
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param zenith
+     * @param tz time zone of the location
+     * @return immutable, thread safe calculator for the location
+     */
+    public PreparedSite prepare(double latitude, double longitude, double zenith, TimeZone tz) {
+        return new PreparedSite(engine, latitude, longitude, zenith, tz);
+    }
+    
+    /**
+     * Creates a sunlight duration calculator for a location, answering range queries 
+     * (e.g. total darkness over a month) from cached per year prefix sums.
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param zenith
+     * @param tz time zone of the location
+     * @return thread safe sunlight duration calculator for the location
+     */
+    public SunlightAnalytics analyze(double latitude, double longitude, double zenith, TimeZone tz) {
+        return new SunlightAnalytics(prepare(latitude, longitude, zenith, tz));
+    }
     
     /**
      * Gets the year of sunlight for Ballast Key, FL.  This is the southern-most point in the 
@@ -34,10 +85,7 @@ public class SunriseSunset {
      * @return Either 365 or 366 days of sunlight (depends on leap year)
      */
     public List<Double> getSunlightForSouthern48LatitudeForYear(int year) {
-        if (southernSunlightForYear == null) {
-            southernSunlightForYear = getYearOfSunlightForPoint(year, 24.520833, -81.963611, TimeZone.getTimeZone("America/New_York"));
-        }
-        return southernSunlightForYear;
+        return getYearOfSunlightForPoint(year, 24.520833, -81.963611, TimeZone.getTimeZone("America/New_York"));
     }
     
     /**
@@ -49,15 +97,13 @@ public class SunriseSunset {
      * @return Either 365 or 366 days of sunlight (depends on leap year)
      */
     public List<Double> getSunlightForNorthern48LatitudeForYear(int year) {
-        if (northernSunlightForYear == null) {
-            northernSunlightForYear = getYearOfSunlightForPoint(year, 49.384358, -95.153314, TimeZone.getTimeZone("America/Chicago"));
-        }
-        return northernSunlightForYear;
+        return getYearOfSunlightForPoint(year, 49.384358, -95.153314, TimeZone.getTimeZone("America/Chicago"));
     }
 
     /**
      * Gets the year of sunlight for an arbitrary point on the Earth.  The sunlight is represented
-     * as a double.
+     * as a double.  Each call computes the whole year; for repeated or range queries use 
+     * {@link #analyze(double, double, double, TimeZone)}.
      * 
      * @param year
      * @param latitude
@@ -67,14 +113,12 @@ public class SunriseSunset {
     public List<Double> getYearOfSunlightForPoint(int year, double latitude, double longitude, TimeZone tz) {
         ArrayList<Double> returnList = new ArrayList<Double>();
         
-        Calendar calendar = Calendar.getInstance();
-        calendar.set(year, 11, 31);  // month is 0 based
-        int daysInYear = calendar.get(Calendar.DAY_OF_YEAR);
-        
-        calendar.set(year, 0, 1);
+        PreparedSite site = this.prepare(latitude, longitude, SunriseSunset.OFFICIAL_ZENITH, tz);
+        long firstDay = EpochDays.startOfYear(year);
+        int daysInYear = EpochDays.lengthOfYear(year);
         for (int i=0; i<daysInYear; i++) {
-            returnList.add(new Double(getSunlightHours(latitude, longitude, calendar.getTime(), tz)));
-            calendar.add(Calendar.HOUR_OF_DAY, 24);
+            long minutes = site.getSunlight(firstDay + i) / (1000 * 60);
+            returnList.add(new Double(minutes / 60.0));
         }
         return returnList;
     }
@@ -113,28 +157,7 @@ public class SunriseSunset {
      * @return amount of sunlight in ms
      */
     public long getSunlight(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
-        Date sunrise = this.getSunrise(latitude, longitude, date, tz);
-        Date sunset = this.getSunset(latitude, longitude, date, tz);
-        
-        long sunlight = 0;
-        if (sunrise == null) {
-            // return 0
-        } else if (sunset == null) {
-            sunlight = 86400000; // 24 hours
-        } else {
-            Calendar sunLightCal = Calendar.getInstance(tz);
-            sunLightCal.setTime(sunrise);
-            Calendar sunsetCal = Calendar.getInstance(tz);
-            sunsetCal.setTime(sunset); 
-            
-            
-            long diff = sunsetCal.getTimeInMillis() - sunLightCal.getTimeInMillis();
-            //long diffHours = diff / (60 * 60 * 1000);
-            //long diffMinutes = diff / (60 * 1000);
-            sunlight = diff;
-        }
-        
-        return sunlight;
+        return this.prepare(latitude, longitude, zenith, tz).getSunlight(date);
     }
     
     /**
@@ -161,15 +184,11 @@ public class SunriseSunset {
      * @return double representation of the amount of sunlight in hours for a location
      */
     public double getSunlightHours(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
-        long sunlight = this.getSunlight(latitude, longitude, date, tz);
+        long sunlight = this.getSunlight(latitude, longitude, date, zenith, tz);
         long minutes = Math.round(sunlight / (1000 * 60));
         return (minutes / 60.0);
     }
     
-    private double getSunlightHours(double latitude, double longitude, Date date, TimeZone tz) {
-        return this.getSunlightHours(latitude, longitude, date, SunriseSunset.OFFICIAL_ZENITH, tz);
-    }
-    
     /**
      * Gets the sunset for today at a particular location
      * 
@@ -214,79 +233,35 @@ public class SunriseSunset {
      * @return GMT date of the sunset.  If the sun does not set, returns null
      */
     public Date getSunset(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
-        double PiOver180 = Math.PI / 180;
-        double One80OverPi = 180 / Math.PI;
-        // Get the day of the year
-        Calendar calendar = Calendar.getInstance();
-        calendar.clear();
-        calendar.setTimeZone(tz);
-        calendar.setTime(date);
-        int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
-        int year = calendar.get(Calendar.YEAR);
-
-        // convert the longitude to hour value 
-        double longitudeHour = longitude / 15;
-        double settingTime = dayOfYear + ((18 - longitudeHour) / 24);
-
-        // calculate the sun's mean anomaly
-        double sunMeanAnomaly = (0.9856 * settingTime) - 3.289;
-
-        // calculate the sun's true longitude
-        double sunTrueLongitude = (sunMeanAnomaly 
-                + (1.916 * Math.sin(sunMeanAnomaly * PiOver180))
-                + (0.020 * Math.sin(sunMeanAnomaly * 2 * PiOver180))
-                + 282.634);
-        if (sunTrueLongitude < 0.0) {
-            sunTrueLongitude += 360;
-        }
-        if (sunTrueLongitude > 360) {
-            sunTrueLongitude -= 360;
-        }
-
-        // calculate the Sun's right ascension
-        double sunRightAscension = One80OverPi * Math.atan(0.91764 * Math.tan(PiOver180 * sunTrueLongitude));
-
-        // right ascension value needs to be in the same quadrant as the sun's true longitude
-        double sunTrueLongitudeQuadrant = (Math.floor(sunTrueLongitude/90) * 90);
-        double sunRightAscensionQuadrant = (Math.floor(sunRightAscension/90) * 90);
-        sunRightAscension = sunRightAscension + (sunTrueLongitudeQuadrant - sunRightAscensionQuadrant);
-
-        // convert right ascension value to hours
-        sunRightAscension = sunRightAscension / 15;
-
-        // calculate the sun's declination
-        double sinDeclination = (0.39782 * (Math.sin(PiOver180 * sunTrueLongitude)));
-        double cosDeclination = Math.cos(Math.asin(sinDeclination));
-
-        // calculate the sun's local hour angle - use zenith as 90 50' cos(zenith) = -0.01454
-        double cosHour = ((-0.01454) - (sinDeclination * (Math.sin(PiOver180 * latitude)))) / (cosDeclination * Math.cos(PiOver180 * latitude));
-        if (cosHour < -1) {
-            // sun never sets
-            return null;
-        }
-
-        // finish calculating local hour angle and convert to hours
-        double localHourAngle = (One80OverPi * Math.acos(cosHour)) / 15;
-
-        // calculate the local mean time of setting
-        double localMeanTime = localHourAngle + sunRightAscension - (0.06571 * settingTime) - 6.622;
-
-        // adjust back to UTC
-        double utcTime = localMeanTime - longitudeHour;
-        utcTime = (utcTime < 0) ? utcTime + 24 : utcTime;
-        //utcTime = (utcTime > 24) ? utcTime - 24 : utcTime;
-        
-        // Get the GMT time
-        int returnTime = (int) Math.floor(utcTime * 60 * 60 * 1000);
-        
-        calendar.clear();
-        calendar.setTimeZone(tz);
-        calendar.add(Calendar.MILLISECOND, returnTime);
-        calendar.add(Calendar.MILLISECOND, tz.getRawOffset());
-        calendar.set(Calendar.DAY_OF_YEAR, dayOfYear);
-        calendar.set(Calendar.YEAR, year);
+        return this.getSunsetEvent(latitude, longitude, date, zenith, tz).getDate();
+    }
+    
+    /**
+     * Gets the sunset for a particular date at a particular location as a typed event
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param date date of sun calculation
+     * @param zenith
+     * @param tz time zone of the location
+     * @return either a SUNSET event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunsetEvent(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
+        return this.getSunsetEvent(latitude, longitude, EpochDays.ofInstant(date.getTime(), tz), zenith, tz);
+    }
 
-        return calendar.getTime();
+    /**
+     * Gets the sunset for a local date at a particular location as a typed event
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param epochDay local date as days since 1970-01-01
+     * @param zenith
+     * @param tz time zone of the location
+     * @return either a SUNSET event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunsetEvent(double latitude, double longitude, long epochDay, double zenith, TimeZone tz) {
+        return this.prepare(latitude, longitude, zenith, tz).getSunsetEvent(epochDay);
     }
     
     /**
@@ -313,9 +288,17 @@ public class SunriseSunset {
     }
     
     
+    /**
+     * Gets the sunrise for a particular date at a particular location
+     * 
+     * @param latitude
+     * @param longitude
+     * @param date
+     * @param tz
+     * @return GMT date of the rise.  If the sun does not rise, returns null
+     */
     public Date getSunrise(double latitude, double longitude, Date date, TimeZone tz) {
-        Date gmtDate =  this.getSunrise(latitude, longitude, date, SunriseSunset.OFFICIAL_ZENITH, tz);
-        return new Date(gmtDate.getTime());
+        return this.getSunrise(latitude, longitude, date, SunriseSunset.OFFICIAL_ZENITH, tz);
     }
     
     /**
@@ -328,171 +311,137 @@ public class SunriseSunset {
      * @return GMT date of the rise.  If the sun does not rise, returns null
      */
     public Date getSunrise(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
-        double PiOver180 = Math.PI / 180;
-        double One80OverPi = 180 / Math.PI;
-        // Get the day of the year
-        Calendar calendar = Calendar.getInstance();
-        calendar.clear();
-        calendar.setTime(date);
-        calendar.setTimeZone(tz);
-        
-        int dayOfYear = calendar.get(Calendar.DAY_OF_YEAR);
-        int year = calendar.get(Calendar.YEAR);
-
-        // convert the longitude to hour value 
-        double longitudeHour = longitude / 15;
-        double risingTime = dayOfYear + ((6 - longitudeHour) / 24);
-
-        // calculate the sun's mean anomaly
-        double sunMeanAnomaly = (0.9856 * risingTime) - 3.289;
-
-        // calculate the sun's true longitude
-        
-        double sunTrueLongitude = (sunMeanAnomaly 
-                + (1.916 * Math.sin(sunMeanAnomaly * PiOver180))
-                + (0.020 * Math.sin(sunMeanAnomaly * 2 * PiOver180))
-                + 282.634);
-        if (sunTrueLongitude < 0.0) {
-            sunTrueLongitude += 360;
-        }
-        if (sunTrueLongitude > 360) {
-            sunTrueLongitude -= 360;
-        }
-
-        // calculate the Sun's right ascension
-        double sunRightAscension = One80OverPi * Math.atan(0.91764 * Math.tan(PiOver180 * sunTrueLongitude));
-
-        // right ascension value needs to be in the same quadrant as the sun's true longitude
-        double sunTrueLongitudeQuadrant = (Math.floor(sunTrueLongitude/90) * 90);
-        double sunRightAscensionQuadrant = (Math.floor(sunRightAscension/90) * 90);
-        sunRightAscension = sunRightAscension + (sunTrueLongitudeQuadrant - sunRightAscensionQuadrant);
-
-        // convert right ascension value to hours
-        sunRightAscension = sunRightAscension / 15;
-
-        // calculate the sun's declination
-        double sinDeclination = (0.39782 * (Math.sin(PiOver180 * sunTrueLongitude)));
-        double cosDeclination = Math.cos(Math.asin(sinDeclination));
-
-        // calculate the sun's local hour angle - use zenith as 90 50' cos(zenith) = -0.01454
-        double cosHour = ((-0.01454) - (sinDeclination * (Math.sin(PiOver180 * latitude)))) / (cosDeclination * Math.cos(PiOver180 * latitude));
-        if (cosHour > 1) {
-            // sun never rises
-            return null;
-        }
-
-        // finish calculating local hour angle and convert to hours
-        double localHourAngle = (360 - (One80OverPi * Math.acos(cosHour))) / 15;
-
-        // calculate the local mean time of rising
-        double localMeanTime = localHourAngle + sunRightAscension - (0.06571 * risingTime) - 6.622;
-        //localMeanTime = (localMeanTime < 0) ? localMeanTime + 24 : localMeanTime;
-        //localMeanTime = (localMeanTime > 24) ? localMeanTime - 24 : localMeanTime;
-
-        // adjust back to UTC
-        double utcTime = localMeanTime - longitudeHour;
-        utcTime = (utcTime < 0) ? utcTime + 24 : utcTime;
-        utcTime = (utcTime > 24) ? utcTime - 24 : utcTime;
-        
-        // Get the GMT time
-        int returnTime = (int) Math.floor(utcTime * 60 * 60 * 1000);
-        
-        calendar.clear();
-        calendar.setTimeZone(tz);
-        calendar.add(Calendar.MILLISECOND, returnTime);
-        calendar.add(Calendar.MILLISECOND, tz.getRawOffset());
-        calendar.set(Calendar.DAY_OF_YEAR, dayOfYear);
-        calendar.set(Calendar.YEAR, year);
+        return this.getSunriseEvent(latitude, longitude, date, zenith, tz).getDate();
+    }
+    
+    /**
+     * Gets the sunrise for a particular date at a particular location as a typed event
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param date date of sun calculation
+     * @param zenith
+     * @param tz time zone of the location
+     * @return either a SUNRISE event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunriseEvent(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
+        return this.getSunriseEvent(latitude, longitude, EpochDays.ofInstant(date.getTime(), tz), zenith, tz);
+    }
 
-        return calendar.getTime();
+    /**
+     * Gets the sunrise for a local date at a particular location as a typed event
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param epochDay local date as days since 1970-01-01
+     * @param zenith
+     * @param tz time zone of the location
+     * @return either a SUNRISE event, or the polar condition (ALWAYS_UP/ALWAYS_DOWN) if the sun does not cross the horizon
+     */
+    public SolarEvent getSunriseEvent(double latitude, double longitude, long epochDay, double zenith, TimeZone tz) {
+        return this.prepare(latitude, longitude, zenith, tz).getSunriseEvent(epochDay);
     }
     
     /**
-     * Simple main to test the class
+     * Finds the first sunrise or sunset occurring after a point in time.
      * 
-     * @param args
+     * @see #findNextEvent(double, double, Date, double, TimeZone, boolean, boolean, int)
      */
-    static public void main(String[] args) {
-        
-        // output timezones
-        for (String tzString : TimeZone.getAvailableIDs()) {
-            if (tzString.startsWith("US") || tzString.startsWith("America")) {
-                System.out.println(tzString);
-            }
-        }
-        
-        
-        // TODO Auto-generated method stub
-        SunriseSunset calculator = new SunriseSunset();
-        
-        List<Double> dataForYear = calculator.getSunlightForNorthern48LatitudeForYear(2011);
-        for (int i=0; i<dataForYear.size(); i++) {
-            System.out.println(dataForYear.get(i));
-        }
-        
-        double zenith = SunriseSunset.OFFICIAL_ZENITH;
-         
-        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("US/Eastern"));
-        
-        Calendar cal = Calendar.getInstance();
-        cal.clear();
-        
-        // Result should be "06/25/1970 05:25 EST"
-        calculator.testDate(1990, Calendar.JUNE, 25, TimeZone.getTimeZone("US/Eastern"), 40.92528, -74.27694);
+    public SolarEvent findNextTransition(double latitude, double longitude, Date from, double zenith, TimeZone tz, int maxDays) {
+        return this.findNextEvent(latitude, longitude, from, zenith, tz, true, true, maxDays);
+    }
 
-        calculator.testDate(2011, Calendar.MARCH, 19, TimeZone.getTimeZone("US/Mountain"), 40.058094, -105.195154);
-        calculator.testDate(2011, Calendar.MARCH, 20, TimeZone.getTimeZone("US/Mountain"), 40.058094, -105.195154);
-        
-        dateFormat.setTimeZone(TimeZone.getTimeZone("US/Mountain"));
-        
-        System.out.println("Boulder");
-        System.out.println("\tSunrise\t\t\tSunset\t\t\tDaylight");
-        for (int j=0; j<12; j++) {
-        for (int i=1; i<=30; i++) {
-            cal.clear();
-            cal.setTimeZone(TimeZone.getTimeZone("US/Mountain"));
-            cal.set(2011, j, i);
-            cal.set(Calendar.HOUR, 0);
-            cal.set(Calendar.MINUTE, 0);
-            cal.set(Calendar.SECOND, 0);
-            cal.set(Calendar.MILLISECOND, 0);
-            double sunlight = calculator.getSunlightHours(40.058094, -105.195154, cal.getTime(), zenith, TimeZone.getTimeZone("US/Mountain"));
-            int sunlightMinutes = (int) (60 * (sunlight - Math.floor(sunlight)));
-            System.out.println(i + "\t" + dateFormat.format(calculator.getSunrise(40.058094, -105.195154, cal.getTime(), zenith, TimeZone.getTimeZone("US/Mountain"))) + "\t" 
-                    + dateFormat.format(calculator.getSunset(40.058094, -105.195154, cal.getTime(), zenith, TimeZone.getTimeZone("US/Mountain"))) + "\t" 
-                    + (int)(Math.floor(sunlight)) + ":" + sunlightMinutes);
+    /**
+     * Finds the first sunrise occurring after a point in time.
+     * 
+     * @see #findNextEvent(double, double, Date, double, TimeZone, boolean, boolean, int)
+     */
+    public SolarEvent findNextSunrise(double latitude, double longitude, Date from, double zenith, TimeZone tz, int maxDays) {
+        return this.findNextEvent(latitude, longitude, from, zenith, tz, true, false, maxDays);
+    }
+    
+    /**
+     * Finds the first sunset occurring after a point in time.
+     * 
+     * @see #findNextEvent(double, double, Date, double, TimeZone, boolean, boolean, int)
+     */
+    public SolarEvent findNextSunset(double latitude, double longitude, Date from, double zenith, TimeZone tz, int maxDays) {
+        return this.findNextEvent(latitude, longitude, from, zenith, tz, false, true, maxDays);
+    }
+    
+    /**
+     * Finds the first sunrise and/or sunset occurring after a point in time.
+     * 
+     * Days on which the sun does not cross the horizon (polar day or night) are skipped with the
+     * incremental {@link SunriseSunsetIterator}, which costs a few multiply-adds per day, and only 
+     * the day(s) around the next transition are evaluated with this calculator's engine.
+     * 
+     * @see PreparedSite#findNextEvent(Date, boolean, boolean, int)
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param from events at or before this time are ignored
+     * @param zenith
+     * @param tz time zone of the location
+     * @param sunrise true to look for sunrise events
+     * @param sunset true to look for sunset events
+     * @param maxDays maximum number of days to look ahead
+     * @return the next event, or null if none occurs within <code>maxDays</code>
+     */
+    public SolarEvent findNextEvent(double latitude, double longitude, Date from, double zenith, TimeZone tz, 
+            boolean sunrise, boolean sunset, int maxDays) {
+        return this.prepare(latitude, longitude, zenith, tz).findNextEvent(from, sunrise, sunset, maxDays);
+    }
+    
+    /**
+     * Converts a UTC time of day into an instant that falls on the given local date.
+     * 
+     * The time of day is taken modulo 24 hours and the result is moved by whole days until it 
+     * lands on the requested local date, using the zone's actual offset (including daylight 
+     * saving time) at the event.
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     * @param utcHours UTC time of day in hours
+     * @param tz time zone of the local date
+     * @return instant in ms since the epoch
+     */
+    static long toInstant(long epochDay, double utcHours, TimeZone tz) {
+        long millisOfDay = (long) Math.floor(utcHours * 60 * 60 * 1000) % EpochDays.MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            millisOfDay += EpochDays.MILLIS_PER_DAY;
         }
+        long instant = epochDay * EpochDays.MILLIS_PER_DAY + millisOfDay;
+        long localDay = EpochDays.ofInstant(instant, tz);
+        if (localDay > epochDay) {
+            instant -= EpochDays.MILLIS_PER_DAY;
+        } else if (localDay < epochDay) {
+            instant += EpochDays.MILLIS_PER_DAY;
         }
-        
-        
-        dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("US/Central"));
-        cal.clear();
-        cal.set(2011, 2, 18);
-        System.out.println("Sunrise " + dateFormat.format(cal.getTime()) + " in MN: " + dateFormat.format(calculator.getSunrise(49.384358, -95.153314, cal.getTime(), zenith, TimeZone.getTimeZone("US/Central"))));
-        System.out.println("Sunset  " + dateFormat.format(cal.getTime()) + " in MN: " + dateFormat.format(calculator.getSunset(49.384358, -95.153314, cal.getTime(), zenith, TimeZone.getTimeZone("US/Central"))));
-        
+        return instant;
     }
-
-    private void testDate(int year, int month, int dayOfMonth, TimeZone tz, double latitude, double longitude) {
-        SunriseSunset calculator = new SunriseSunset();
-        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy HH:mm");
-        dateFormat.setTimeZone(tz);
-        double zenith = SunriseSunset.OFFICIAL_ZENITH;
-        Calendar cal = Calendar.getInstance();
-        cal.clear();
-        cal.set(Calendar.HOUR, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-        cal.set(Calendar.DAY_OF_MONTH, dayOfMonth);
-        cal.set(Calendar.MONTH, month);
-        cal.set(Calendar.YEAR, year);
-        cal.setTimeZone(tz);
-        
-        System.out.println(dateFormat.format(calculator.getSunrise(latitude, longitude, cal.getTime(), zenith, tz)) + " " + tz.getDisplayName());
-        System.out.println(dateFormat.format(calculator.getSunset(latitude, longitude, cal.getTime(), zenith, tz)) + " " + tz.getDisplayName());
-        System.out.println("");
+    
+    /**
+     * Creates an iterator that walks the sunrise and sunset events of a location one day at a time
+     * starting with the local date containing <code>date</code>.  The iterator always uses the 
+     * Almanac for Computers algorithm, regardless of this calculator's engine.
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param date first date of the iteration
+     * @param zenith
+     * @param tz time zone of the location
+     * @return day by day event iterator
+     */
+    public SunriseSunsetIterator iterate(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
+        return this.prepare(latitude, longitude, zenith, tz).iterate(date);
+    }
+    
+    /**
+     * Writes a sunlight report; see {@link SunlightReport} for the arguments.
+     * 
+     * @param args
+     */
+    static public void main(String[] args) throws IOException {
+        SunlightReport.main(args);
     }
 }
\ No newline at end of file
@@ -0,0 +1,268 @@
+package com.savagehomeautomation.utility;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SunriseSunsetIterator.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Walks the sunrise and sunset events of a single location one day at a time.
+ * 
+ * This produces the same results as {@link SunriseSunset#getSunrise(double, double, Date, double, TimeZone)} 
+ * and {@link SunriseSunset#getSunset(double, double, Date, double, TimeZone)}, but between consecutive
+ * days only the day of year changes, so the sun's mean anomaly simply advances by a constant angle.  
+ * The sine and cosine of the mean anomaly are carried forward with the angle-addition identities 
+ * and the equation of center is applied as a small-angle rotation, leaving only the right ascension 
+ * (atan2) and the hour angle (acos) as transcendental calls per event.  To keep rounding error from
+ * accumulating, the state is re-anchored with exact sin/cos every {@link #REANCHOR_INTERVAL} days 
+ * and at every year boundary.
+ * 
+ * Instances are not thread safe.
+ * 
+ * @author Robert Savage
+ */
+public class SunriseSunsetIterator {
+
+    /** value returned when the sun does not rise or set on the current day */
+    static final public long NO_EVENT = Long.MIN_VALUE;
+
+    /** number of days the recurrences are advanced before the exact values are recomputed */
+    static final public int REANCHOR_INTERVAL = 32;
+
+    static final private double PiOver180 = Math.PI / 180;
+    static final private double One80OverPi = 180 / Math.PI;
+    
+    // mean anomaly advance per day (degrees) and its rotation terms
+    static final private double DAILY_MOTION = 0.9856;
+    static final private double SIN_DAILY_MOTION = Math.sin(DAILY_MOTION * PiOver180);
+    static final private double COS_DAILY_MOTION = Math.cos(DAILY_MOTION * PiOver180);
+    
+    // constant offset between mean anomaly and true longitude (degrees)
+    static final private double LONGITUDE_OF_PERIHELION = 282.634;
+    static final private double SIN_PERIHELION = Math.sin(LONGITUDE_OF_PERIHELION * PiOver180);
+    static final private double COS_PERIHELION = Math.cos(LONGITUDE_OF_PERIHELION * PiOver180);
+    
+    // per location constants
+    private final TimeZone tz;
+    private final double longitudeHour;
+    private final double sinLatitude;
+    private final double cosLatitude;
+    private final double cosZenith;
+    
+    // current date
+    private long epochDay;
+    private int year;
+    private int dayOfYear;
+    private int daysInYear;
+    private int daysSinceAnchor;
+    
+    // carried state for the rising and setting mean anomaly
+    private final Anomaly rising = new Anomaly(6);
+    private final Anomaly setting = new Anomaly(18);
+    
+    // events for the current date
+    private long sunrise;
+    private long sunset;
+    
+    /**
+     * Creates an iterator positioned on the local date containing <code>date</code>.
+     * 
+     * @param latitude location of sun calculation
+     * @param longitude location of sun calculation
+     * @param date first date of the iteration
+     * @param zenith zenith of the sunrise/sunset events
+     * @param tz time zone of the location
+     */
+    public SunriseSunsetIterator(double latitude, double longitude, Date date, double zenith, TimeZone tz) {
+        this(new SiteGeometry(latitude, longitude, zenith), date, tz);
+    }
+    
+    /**
+     * Creates an iterator for a prepared site positioned on the local date containing <code>date</code>.
+     * 
+     * @param site location and zenith of sun calculation
+     * @param date first date of the iteration
+     * @param tz time zone of the location
+     */
+    public SunriseSunsetIterator(SiteGeometry site, Date date, TimeZone tz) {
+        this.tz = tz;
+        this.longitudeHour = site.getLongitudeHour();
+        this.sinLatitude = site.getSinLatitude();
+        this.cosLatitude = site.getCosLatitude();
+        this.cosZenith = site.getCosZenith();
+        moveTo(EpochDays.ofInstant(date.getTime(), tz));
+    }
+    
+    /**
+     * Repositions the iterator on a local date, recomputing the state exactly.
+     * 
+     * @param epochDay local date as days since 1970-01-01
+     */
+    public void moveTo(long epochDay) {
+        this.epochDay = epochDay;
+        this.year = EpochDays.yearOf(epochDay);
+        this.dayOfYear = (int) (epochDay - EpochDays.startOfYear(year)) + 1;
+        this.daysInYear = EpochDays.lengthOfYear(year);
+        anchor();
+        compute();
+    }
+
+    /**
+     * Advances the iterator to the next local date.
+     */
+    public void next() {
+        epochDay++;
+        if (dayOfYear == daysInYear) {
+            // day of year resets; the mean anomaly jumps back, so start over from exact values
+            year++;
+            dayOfYear = 1;
+            daysInYear = EpochDays.lengthOfYear(year);
+            anchor();
+        } else if (++daysSinceAnchor >= REANCHOR_INTERVAL) {
+            dayOfYear++;
+            anchor();
+        } else {
+            dayOfYear++;
+            rising.advance();
+            setting.advance();
+        }
+        compute();
+    }
+    
+    /**
+     * @return current local date as days since 1970-01-01
+     */
+    public long getEpochDay() {
+        return epochDay;
+    }
+    
+    /**
+     * @return year of the current local date
+     */
+    public int getYear() {
+        return year;
+    }
+    
+    /**
+     * @return day of year (1 based) of the current local date
+     */
+    public int getDayOfYear() {
+        return dayOfYear;
+    }
+    
+    /**
+     * @return sunrise of the current date in ms since the epoch, or {@link #NO_EVENT} if the sun does not rise
+     */
+    public long getSunrise() {
+        return sunrise;
+    }
+
+    /**
+     * @return sunset of the current date in ms since the epoch, or {@link #NO_EVENT} if the sun does not set
+     */
+    public long getSunset() {
+        return sunset;
+    }
+    
+    private void anchor() {
+        daysSinceAnchor = 0;
+        rising.anchor(dayOfYear);
+        setting.anchor(dayOfYear);
+    }
+    
+    private void compute() {
+        double risingHours = rising.eventHours(true);
+        double settingHours = setting.eventHours(false);
+        sunrise = Double.isNaN(risingHours) ? NO_EVENT : SunriseSunset.toInstant(epochDay, risingHours, tz);
+        sunset = Double.isNaN(settingHours) ? NO_EVENT : SunriseSunset.toInstant(epochDay, settingHours, tz);
+    }
+
+    /**
+     * Carried sin/cos state of the sun's mean anomaly for either the rising (06:00) or 
+     * setting (18:00) approximate local time.
+     */
+    private class Anomaly {
+        private final double hourOfDay;
+        private double time;
+        private double sinAnomaly;
+        private double cosAnomaly;
+        
+        Anomaly(double hourOfDay) {
+            this.hourOfDay = hourOfDay;
+        }
+        
+        void anchor(int dayOfYear) {
+            time = dayOfYear + ((hourOfDay - longitudeHour) / 24);
+            double sunMeanAnomaly = (DAILY_MOTION * time) - 3.289;
+            sinAnomaly = Math.sin(sunMeanAnomaly * PiOver180);
+            cosAnomaly = Math.cos(sunMeanAnomaly * PiOver180);
+        }
+        
+        void advance() {
+            time += 1;
+            double sin = sinAnomaly * COS_DAILY_MOTION + cosAnomaly * SIN_DAILY_MOTION;
+            double cos = cosAnomaly * COS_DAILY_MOTION - sinAnomaly * SIN_DAILY_MOTION;
+            sinAnomaly = sin;
+            cosAnomaly = cos;
+        }
+        
+        /**
+         * @return UTC hour of the event, or NaN if it does not occur
+         */
+        double eventHours(boolean rise) {
+            // equation of center (degrees), at most ~1.94 degrees so a short series is exact to double precision
+            double center = (1.916 * sinAnomaly) + (0.020 * 2 * sinAnomaly * cosAnomaly);
+            double c = center * PiOver180;
+            double c2 = c * c;
+            double sinCenter = c * (1 - c2 / 6 * (1 - c2 / 20 * (1 - c2 / 42)));
+            double cosCenter = 1 - c2 / 2 * (1 - c2 / 12 * (1 - c2 / 30));
+            
+            // rotate by the longitude of perihelion, then by the equation of center
+            double sinMean = sinAnomaly * COS_PERIHELION + cosAnomaly * SIN_PERIHELION;
+            double cosMean = cosAnomaly * COS_PERIHELION - sinAnomaly * SIN_PERIHELION;
+            double sinTrueLongitude = sinMean * cosCenter + cosMean * sinCenter;
+            double cosTrueLongitude = cosMean * cosCenter - sinMean * sinCenter;
+            
+            // right ascension in the same quadrant as the true longitude, in hours
+            double sunRightAscension = One80OverPi * Math.atan2(0.91764 * sinTrueLongitude, cosTrueLongitude);
+            if (sunRightAscension < 0) {
+                sunRightAscension += 360;
+            }
+            sunRightAscension = sunRightAscension / 15;
+            
+            // declination and local hour angle
+            double sinDeclination = 0.39782 * sinTrueLongitude;
+            double cosDeclination = Math.sqrt(1 - sinDeclination * sinDeclination);
+            double cosHour = (cosZenith - (sinDeclination * sinLatitude)) / (cosDeclination * cosLatitude);
+            if (rise ? cosHour > 1 : cosHour < -1) {
+                return Double.NaN;
+            }
+            double hourAngle = One80OverPi * Math.acos(cosHour);
+            double localHourAngle = (rise ? 360 - hourAngle : hourAngle) / 15;
+            
+            // local mean time, adjusted back to UTC
+            double localMeanTime = localHourAngle + sunRightAscension - (0.06571 * time) - 6.622;
+            return localMeanTime - longitudeHour;
+        }
+    }
+}
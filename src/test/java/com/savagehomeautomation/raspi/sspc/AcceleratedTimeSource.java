@@ -0,0 +1,66 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  AcceleratedTimeSource.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a simulated clock that starts at a given time and runs 
+ * a fixed factor faster than real time.
+ * 
+ * @author Robert Savage
+ */
+public class AcceleratedTimeSource extends TimeSource
+{
+    private final long start;
+    private final long speed;
+    private final long origin = System.nanoTime();
+    
+    /**
+     * @param start wall-clock time of the simulated clock in ms since the epoch when created
+     * @param speed number of simulated seconds per real second
+     */
+    public AcceleratedTimeSource(long start, long speed)
+    {
+        this.start = start;
+        this.speed = speed;
+    }
+    
+    @Override
+    public long getSpeed()
+    {
+        return speed;
+    }
+    
+    @Override
+    public long currentTimeMillis()
+    {
+        return start + TimeUnit.NANOSECONDS.toMillis(nanoTime());
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return (System.nanoTime() - origin) * speed;
+    }
+}
@@ -0,0 +1,387 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  ControllerSoakTest.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.savagehomeautomation.utility.PreparedSite;
+import com.savagehomeautomation.utility.SolarEngineType;
+import com.savagehomeautomation.utility.SunriseSunset;
+
+/**
+ * This class is a load generator and soak test for the control plane of the 
+ * {@link SunriseSunsetPowerController}.
+ * 
+ * The controller is started on a {@link SimulatedOutputBackend} and an 
+ * accelerated {@link TimeSource}, so days of schedule transitions pass in 
+ * seconds.  While the transitions run, a number of threads execute console 
+ * commands through {@link SunriseSunsetPowerController#executeCommand(String)} 
+ * and another thread presses the simulated override switch, all contending 
+ * for the controller lock.  Only commands that do not change the plan are 
+ * used, so every planned transition is expected to run exactly once; the 
+ * executed transitions are compared with an independently built index of 
+ * the same schedule to find lost and duplicated transitions.
+ * 
+ * Usage: ControllerSoakTest [-speed=86400] [-channels=8] [-threads=4] 
+ *                           [-commands=5000] [-presses=2000] [-days=7]
+ * 
+ * The run lasts until all commands and presses are done, but at least the 
+ * given number of simulated days.
+ * 
+ * @author Robert Savage
+ */
+public class ControllerSoakTest
+{
+    private static final double LATITUDE = 40.058094;
+    private static final double LONGITUDE = -105.195154;
+    
+    // console commands that do not change the plan
+    private static final String[] COMMANDS = { "status", "next", "time", "sunrise", "sunset", "coord", "help", "groups", 
+        "on", "off", "on all", "off even", "on ch1", "scene night" };
+    
+    // real time allowed for a due transition to be executed before the run ends
+    private static final long SETTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    
+    private long speed = 86400;
+    private int channels = 8;
+    private int threads = 4;
+    private int commands = 5000;
+    private int presses = 2000;
+    private int days = 7;
+    
+    /**
+     * Run the soak test and print a report.
+     * 
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws Exception
+    {
+        ControllerSoakTest test = new ControllerSoakTest();
+        for(String arg : args)
+        {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if(arg.startsWith("-speed="))
+                test.speed = Long.parseLong(value);
+            else if(arg.startsWith("-channels="))
+                test.channels = Math.min(Integer.parseInt(value), OutputBackend.MAX_PIN);
+            else if(arg.startsWith("-threads="))
+                test.threads = Integer.parseInt(value);
+            else if(arg.startsWith("-commands="))
+                test.commands = Integer.parseInt(value);
+            else if(arg.startsWith("-presses="))
+                test.presses = Integer.parseInt(value);
+            else if(arg.startsWith("-days="))
+                test.days = Integer.parseInt(value);
+        }
+        System.exit(test.run() ? 0 : 1);
+    }
+    
+    /**
+     * @return true if no transition was lost, duplicated or unexpected
+     */
+    private boolean run() throws Exception
+    {
+        File rulesFile = File.createTempFile("sspc-soak", ".rules");
+        File planFile = File.createTempFile("sspc-soak", ".plan");
+        rulesFile.deleteOnExit();
+        planFile.deleteOnExit();
+        new File(planFile.getPath() + ".tmp").deleteOnExit();
+        writeRules(rulesFile);
+        
+        final AcceleratedTimeSource clock = new AcceleratedTimeSource(System.currentTimeMillis(), speed);
+        final SimulatedOutputBackend backend = new SimulatedOutputBackend();
+        final SunriseSunsetPowerController controller = new SunriseSunsetPowerController(backend, clock);
+        final ConcurrentLinkedQueue<long[]> executed = new ConcurrentLinkedQueue<long[]>();
+        controller.setSwitchListener(new SunriseSunsetPowerController.SwitchListener()
+        {
+            @Override
+            public void switched(int channel, boolean state, long time)
+            {
+                executed.add(new long[] { channel, time, clock.currentTimeMillis() });
+            }
+        });
+        
+        // the controller reports every event on the console; discard it while under load
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b) {}
+            
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        }));
+        
+        long[][] commandLatencies = new long[threads][];
+        long[][] pressLatencies = new long[1][];
+        long ready;
+        long end;
+        long elapsed;
+        try
+        {
+            controller.startup(new String[] { "-rules=" + rulesFile.getPath(), "-plan=" + planFile.getPath() });
+            ready = clock.currentTimeMillis();
+            
+            // start all load threads at once
+            CountDownLatch gate = new CountDownLatch(1);
+            Thread[] workers = new Thread[threads + 1];
+            for(int thread = 0; thread < threads; thread++)
+                workers[thread] = startCommands(controller, gate, commandLatencies, thread);
+            workers[threads] = startPresses(backend, gate, pressLatencies);
+            
+            long start = System.nanoTime();
+            gate.countDown();
+            for(Thread worker : workers)
+                worker.join();
+            elapsed = System.nanoTime() - start;
+            
+            // keep the transitions running for the minimum number of simulated days
+            long remaining = ready + TimeUnit.DAYS.toMillis(days) - clock.currentTimeMillis();
+            if(remaining > 0)
+                TimeUnit.NANOSECONDS.sleep(clock.toWaitNanos(remaining));
+            
+            // let due transitions settle before ending the run
+            TimeUnit.NANOSECONDS.sleep(SETTLE_NANOS);
+            end = clock.currentTimeMillis();
+            controller.shutdown();
+        }
+        finally
+        {
+            System.setOut(console);
+        }
+        
+        // only transitions that had enough time to be executed are checked
+        long last = end - TimeUnit.NANOSECONDS.toMillis(SETTLE_NANOS) * speed / 2;
+        Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        long[] lateness = new long[executed.size()];
+        int executions = 0;
+        for(long[] event : executed)
+        {
+            if(event[1] <= ready || event[1] > last)
+                continue;
+            Long key = key((int)event[0], event[1]);
+            counts.put(key, counts.containsKey(key) ? counts.get(key) + 1 : 1);
+            lateness[executions++] = TimeUnit.MILLISECONDS.toNanos(event[2] - event[1]) / speed;
+        }
+        
+        // the reference plan of the same schedule
+        ScheduleRules rules = readRules(rulesFile);
+        PreparedSite site = new SunriseSunset(SolarEngineType.NOAA.getEngine()).prepare(LATITUDE, LONGITUDE, rules.getZenith(), TimeZone.getDefault());
+        CompiledSchedule schedule = rules.compile(site);
+        SwitchIntervalIndex reference = new SwitchIntervalIndex(schedule, ready, (int)TimeUnit.MILLISECONDS.toDays(end - ready) + 2);
+        int expected = 0;
+        int lost = 0;
+        int duplicated = 0;
+        for(int channel = 0; channel < schedule.getChannelCount(); channel++)
+        {
+            for(long time : reference.getTransitions(channel))
+            {
+                if(time <= ready || time > last)
+                    continue;
+                expected++;
+                Integer count = counts.remove(key(channel, time));
+                if(count == null)
+                    lost++;
+                else if(count > 1)
+                    duplicated += count - 1;
+            }
+        }
+        int unexpected = 0;
+        for(int count : counts.values())
+            unexpected += count;
+        
+        System.out.println("----------------------------------------------------");
+        System.out.println(" SSPC SOAK TEST : " + channels + " CHANNELS @ " + speed + "x REAL TIME");
+        System.out.println("----------------------------------------------------");
+        System.out.println(String.format(" RUN TIME    : %.1f s real, %.1f days simulated", 
+                elapsed / 1e9, (end - ready) / (double)TimeUnit.DAYS.toMillis(1)));
+        System.out.println(" COMMANDS    : " + summarize(merge(commandLatencies), elapsed));
+        System.out.println(" PRESSES     : " + summarize(pressLatencies[0], elapsed));
+        System.out.println(" TRANSITIONS : " + expected + " EXPECTED, " + executions + " EXECUTED, " 
+                + lost + " LOST, " + duplicated + " DUPLICATED, " + unexpected + " UNEXPECTED");
+        System.out.println(" LATENESS    : " + summarize(Arrays.copyOf(lateness, executions), 0));
+        System.out.println(" BATCHES     : " + backend.getBatches() + " GROUP/SCENE SWITCHES");
+        System.out.println(" RECONCILE   : " + controller.getReconcileChecks() + " CHECKS, " 
+                + controller.getReconcileMismatches() + " MISMATCHES CORRECTED");
+        System.out.println("----------------------------------------------------");
+        return lost == 0 && duplicated == 0 && unexpected == 0;
+    }
+    
+    /**
+     * Write a schedule with a mix of clock and sunrise/sunset anchored channels.
+     */
+    private void writeRules(File file) throws IOException
+    {
+        FileWriter writer = new FileWriter(file);
+        try
+        {
+            writer.write("location " + LATITUDE + " " + LONGITUDE + "\n");
+            for(int channel = 1; channel <= channels; channel++)
+                writer.write("channel ch" + channel + " gpio " + channel + "\n");
+            for(int channel = 1; channel <= channels; channel++)
+            {
+                if(channel % 2 == 0)
+                    writer.write("ch" + channel + " daily sunset+" + channel + "m until sunrise\n");
+                else
+                    writer.write("ch" + channel + " daily " + String.format("%02d:%02d until %02d:%02d", 
+                            6 + channel % 5, channel * 7 % 60, 17 + channel % 6, channel * 11 % 60) + "\n");
+                writer.write("ch" + channel + " weekends " + String.format("%02d:%02d", 8 + channel % 3, channel * 5 % 60) + " until sunset\n");
+            }
+            
+            // a group of the even channels and a scene switching them off and the first channel on
+            writer.write("group even");
+            for(int channel = 2; channel <= channels; channel += 2)
+                writer.write(" ch" + channel);
+            writer.write("\nscene night even=off ch1=on\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+    
+    private static ScheduleRules readRules(File file) throws Exception
+    {
+        FileReader reader = new FileReader(file);
+        try
+        {
+            return ScheduleRules.parse(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+    
+    private Thread startCommands(final SunriseSunsetPowerController controller, final CountDownLatch gate, 
+            final long[][] latencies, final int thread)
+    {
+        latencies[thread] = new long[commands];
+        Thread worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Random random = new Random(thread);
+                awaitQuietly(gate);
+                for(int command = 0; command < commands; command++)
+                {
+                    long start = System.nanoTime();
+                    controller.executeCommand(COMMANDS[random.nextInt(COMMANDS.length)]);
+                    latencies[thread][command] = System.nanoTime() - start;
+                }
+            }
+        }, "SSPC-Soak-Commands-" + thread);
+        worker.start();
+        return worker;
+    }
+    
+    private Thread startPresses(final SimulatedOutputBackend backend, final CountDownLatch gate, final long[][] latencies)
+    {
+        latencies[0] = new long[presses];
+        Thread worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                awaitQuietly(gate);
+                for(int press = 0; press < presses; press++)
+                {
+                    long start = System.nanoTime();
+                    backend.press();
+                    latencies[0][press] = System.nanoTime() - start;
+                }
+            }
+        }, "SSPC-Soak-Presses");
+        worker.start();
+        return worker;
+    }
+    
+    private static void awaitQuietly(CountDownLatch gate)
+    {
+        try
+        {
+            gate.await();
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static Long key(int channel, long time)
+    {
+        return (time << 5) | channel;
+    }
+    
+    private static long[] merge(long[][] arrays)
+    {
+        int size = 0;
+        for(long[] array : arrays)
+            size += array.length;
+        long[] merged = new long[size];
+        int offset = 0;
+        for(long[] array : arrays)
+        {
+            System.arraycopy(array, 0, merged, offset, array.length);
+            offset += array.length;
+        }
+        return merged;
+    }
+    
+    /**
+     * @param nanos latencies in ns
+     * @param elapsed run time in ns to report the throughput for (0 for none)
+     */
+    private static String summarize(long[] nanos, long elapsed)
+    {
+        if(nanos.length == 0)
+            return "NONE";
+        Arrays.sort(nanos);
+        return String.format("%d%s  p50 %d us  p99 %d us  p99.9 %d us  max %d us", 
+                nanos.length, 
+                (elapsed > 0) ? String.format(" (%.0f/s)", nanos.length / (elapsed / 1e9)) : "",
+                percentile(nanos, 0.50) / 1000, 
+                percentile(nanos, 0.99) / 1000, 
+                percentile(nanos, 0.999) / 1000, 
+                nanos[nanos.length - 1] / 1000);
+    }
+    
+    private static long percentile(long[] sorted, double fraction)
+    {
+        return sorted[Math.min(sorted.length - 1, (int)(sorted.length * fraction))];
+    }
+}
@@ -0,0 +1,167 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  ScheduleRulesTest.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import com.savagehomeautomation.utility.EpochDays;
+import com.savagehomeautomation.utility.PreparedSite;
+import com.savagehomeautomation.utility.SolarEngineType;
+import com.savagehomeautomation.utility.SunriseSunset;
+
+/**
+ * This class checks the day plans the {@link CompiledSchedule} resolves for 
+ * rule shapes whose end can fall before their start, at a high latitude site 
+ * (Reykjavik, where the June sunset is close to midnight).
+ * 
+ * Usage: ScheduleRulesTest
+ * 
+ * @author Robert Savage
+ */
+public class ScheduleRulesTest
+{
+    private static final double LATITUDE = 64.1466;
+    private static final double LONGITUDE = -21.9426;
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Atlantic/Reykjavik");
+    private static final int MAX_PORCH_HOURS = 8;
+    
+    private static final String RULES = 
+              "channel porch gpio 1\n"
+            + "channel late gpio 2\n"
+            + "channel yard gpio 3\n"
+            + "channel night gpio 4\n"
+            + "porch daily sunset+15m until 23:30\n"
+            + "late daily 22:00 until 06:00\n"
+            + "yard daily sunset until 01:00\n"
+            + "night mon sunset+6h until 08:00\n"
+            + "night tue 01:00 until 02:00\n";
+    
+    private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+    private CompiledSchedule schedule;
+    private int failures;
+    
+    /**
+     * Run the checks and print a report.
+     * 
+     * @param args command line arguments (unused)
+     */
+    public static void main(String[] args) throws Exception
+    {
+        ScheduleRulesTest test = new ScheduleRulesTest();
+        System.exit(test.run() ? 0 : 1);
+    }
+    
+    /**
+     * @return true if every check passed
+     */
+    private boolean run() throws Exception
+    {
+        format.setTimeZone(TIME_ZONE);
+        PreparedSite site = new SunriseSunset(SolarEngineType.NOAA.getEngine()).prepare(LATITUDE, LONGITUDE, 
+                SunriseSunset.OFFICIAL_ZENITH, TIME_ZONE);
+        schedule = ScheduleRules.parse(RULES).compile(site);
+        long june = EpochDays.fromCivil(2024, 6, 21);
+        long january = EpochDays.fromCivil(2024, 1, 15);
+        
+        System.out.println("----------------------------------------------------");
+        System.out.println(" SSPC SCHEDULE RULES TEST : " + LATITUDE + ", " + LONGITUDE);
+        System.out.println("----------------------------------------------------");
+        
+        // sunset+15m is after 23:30 in June; the rule must be skipped, not run until the next night
+        check("porch", june, "");
+        check("porch", january, "2024-01-15 16:33 - 2024-01-15 23:30");
+        
+        // overnight rules still end on the following date
+        check("late", june, "2024-06-21 22:00 - 2024-06-22 06:00");
+        check("yard", january, "2024-01-15 16:18 - 2024-01-16 01:00");
+        
+        // the June sunset falls after midnight; the rule starts at that sunset, not the previous one
+        check("yard", june, "2024-06-22 00:03 - 2024-06-22 01:00");
+        
+        // no porch plan of the summer may run on into the following day
+        for(long day = EpochDays.fromCivil(2024, 5, 1); day < EpochDays.fromCivil(2024, 8, 1); day++)
+        {
+            long[] intervals = schedule.getIntervals(schedule.indexOf("porch"), day);
+            for(int index = 0; index < intervals.length; index += 2)
+            {
+                if(intervals[index + 1] - intervals[index] > MAX_PORCH_HOURS * 60 * 60 * 1000L)
+                    fail("porch on " + format.format(new Date(intervals[index])).substring(0, 10) + " = [" 
+                            + describe(intervals) + "] longer than " + MAX_PORCH_HOURS + " hours");
+            }
+        }
+        
+        // Tuesday's early interval starts before the one of Monday's late rule; both must be indexed
+        long monday = EpochDays.fromCivil(2024, 6, 17);
+        SwitchIntervalIndex index = new SwitchIntervalIndex(schedule, EpochDays.startOfDay(monday, TIME_ZONE), 3);
+        checkState(index, "night", "2024-06-18 01:30", true);
+        checkState(index, "night", "2024-06-18 02:30", false);
+        checkState(index, "night", "2024-06-18 07:00", true);
+        
+        System.out.println("----------------------------------------------------");
+        System.out.println(" " + ((failures == 0) ? "ALL CHECKS PASSED" : failures + " CHECKS FAILED"));
+        System.out.println("----------------------------------------------------");
+        return failures == 0;
+    }
+    
+    private void check(String channel, long epochDay, String expected)
+    {
+        String actual = describe(schedule.getIntervals(schedule.indexOf(channel), epochDay));
+        boolean passed = actual.equals(expected);
+        if(!passed)
+            failures++;
+        System.out.println(" " + (passed ? "PASS" : "FAIL") + " : " + channel + " on " 
+                + format.format(new Date(EpochDays.startOfDay(epochDay, TIME_ZONE))).substring(0, 10) 
+                + " = [" + actual + "]" + (passed ? "" : " expected [" + expected + "]"));
+    }
+    
+    private void checkState(SwitchIntervalIndex index, String channel, String time, boolean expected) throws ParseException
+    {
+        boolean actual = index.stateAt(schedule.indexOf(channel), format.parse(time).getTime());
+        boolean passed = actual == expected;
+        if(!passed)
+            failures++;
+        System.out.println(" " + (passed ? "PASS" : "FAIL") + " : " + channel + " at " + time + " = " 
+                + (actual ? "ON" : "OFF") + (passed ? "" : " expected " + (expected ? "ON" : "OFF")));
+    }
+    
+    private void fail(String message)
+    {
+        failures++;
+        System.out.println(" FAIL : " + message);
+    }
+    
+    private String describe(long[] intervals)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int index = 0; index < intervals.length; index += 2)
+        {
+            if(index > 0)
+                text.append(", ");
+            text.append(format.format(new Date(intervals[index]))).append(" - ").append(format.format(new Date(intervals[index + 1])));
+        }
+        return text.toString();
+    }
+}
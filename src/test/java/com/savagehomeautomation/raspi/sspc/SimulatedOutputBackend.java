@@ -0,0 +1,124 @@
+package com.savagehomeautomation.raspi.sspc;
+/*
+ * **********************************************************************
+ * ORGANIZATION  :  savagehomeautomation.com
+ * PROJECT       :  Sunrise/Sunset Power Controller 
+ * FILENAME      :  SimulatedOutputBackend.java  
+ * 
+ * More information about this project can be found here:  
+ * http://www.savagehomeautomation.com/projects/raspberry-pi-sunrise-sunset-timer-for-christmas-lights.html
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 Robert Savage (www.savagehomeautoamtion.com)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may obtain a copy of the License
+ * at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is an in-memory stand-in for the GPIO hardware.  Output pins 
+ * keep their state in memory and count their writes; the override switch 
+ * is pressed programmatically with {@link #press()}.
+ * 
+ * Like the Pi4J toggle trigger, a press toggles the output on the calling 
+ * thread, outside of any controller lock, before the listener is notified.
+ * 
+ * @author Robert Savage
+ */
+public class SimulatedOutputBackend implements OutputBackend
+{
+    private final SimulatedOutput[] outputs = new SimulatedOutput[MAX_PIN + 1];
+    private volatile SimulatedOutput overrideOutput;
+    private volatile OverrideListener overrideListener;
+    private long batches;
+    
+    @Override
+    public synchronized Output provisionOutput(int pin, String name)
+    {
+        if(outputs[pin] != null)
+            throw new IllegalStateException("Pin " + pin + " has already been provisioned.");
+        outputs[pin] = new SimulatedOutput();
+        return outputs[pin];
+    }
+
+    @Override
+    public synchronized void setStates(Output[] outputs, boolean[] states)
+    {
+        for(int index = 0; index < outputs.length; index++)
+            outputs[index].setState(states[index]);
+        batches++;
+    }
+
+    @Override
+    public void provisionOverrideSwitch(Output output, OverrideListener listener)
+    {
+        overrideOutput = (SimulatedOutput)output;
+        overrideListener = listener;
+    }
+    
+    /**
+     * Press the override switch once.
+     */
+    public void press()
+    {
+        SimulatedOutput output = overrideOutput;
+        if(output == null)
+            throw new IllegalStateException("No override switch has been provisioned.");
+        output.toggle();
+        overrideListener.overridePressed();
+    }
+    
+    /**
+     * @param pin output pin number
+     * @return number of writes to the pin (0 if the pin was never provisioned)
+     */
+    public synchronized long getWrites(int pin)
+    {
+        return (outputs[pin] == null) ? 0 : outputs[pin].writes.get();
+    }
+    
+    /**
+     * @return number of batches of output states set
+     */
+    public synchronized long getBatches()
+    {
+        return batches;
+    }
+    
+    /**
+     * This class is a simulated output pin.
+     */
+    private static class SimulatedOutput implements Output
+    {
+        private final AtomicLong writes = new AtomicLong();
+        private volatile boolean high;
+        
+        @Override
+        public void setState(boolean high)
+        {
+            this.high = high;
+            writes.incrementAndGet();
+        }
+
+        @Override
+        public boolean isHigh()
+        {
+            return high;
+        }
+        
+        private void toggle()
+        {
+            high = !high;
+            writes.incrementAndGet();
+        }
+    }
+}